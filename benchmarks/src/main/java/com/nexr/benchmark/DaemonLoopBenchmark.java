@@ -0,0 +1,82 @@
+package com.nexr.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Level;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nexr.Daemon;
+
+/**
+ * Per iteration overhead of the Daemon execution loop itself: a loop with an empty processing hook and no sleep runs
+ * in the background and each benchmark invocation waits for it to complete another batch of iterations.
+ * 
+ * Run with -prof gc to watch the allocation rate while the loop runs; the benchmark thread itself allocates nothing
+ * while it waits. DaemonLoopAllocationTest checks the same thing on every build.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DaemonLoopBenchmark {
+    
+    private static final int BATCH = 10000;
+    
+    /*
+     * "empty" overrides the parallel hook with an empty method, "default" runs Daemon's own hook with its logger
+     * disabled.
+     */
+    @Param({ "empty", "default" })
+    public String hook;
+    
+    private Daemon daemon;
+    
+    @Setup
+    public void startLoop() throws InterruptedException {
+        org.apache.log4j.Logger.getLogger(Daemon.class).setLevel(Level.WARN);
+        
+        if ("empty".equals(hook)) {
+            daemon = new Daemon() {
+                @Override
+                protected void customExecuteProcessing(int workerIndex, int workerCount) {
+                }
+            };
+        } else {
+            daemon = new Daemon();
+        }
+        daemon.setProcessLoopSleepMillis(0);
+        daemon.startProcessingLoop();
+    }
+    
+    @TearDown
+    public void stopLoop() throws InterruptedException {
+        daemon.stopProcessingLoop();
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long loopIteration() {
+        long target = daemon.getLoopIterationCount() + BATCH;
+        long count;
+        
+        while ((count = daemon.getLoopIterationCount()) < target) {
+            // Busy wait, the loop runs on its own thread
+        }
+        
+        return count;
+    }
+}
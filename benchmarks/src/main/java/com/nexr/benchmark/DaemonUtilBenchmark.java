@@ -0,0 +1,80 @@
+package com.nexr.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nexr.Daemon;
+import com.nexr.HelloWorld;
+
+/**
+ * Baseline for the static utility methods of Daemon and HelloWorld which are called from log banners and loop events.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DaemonUtilBenchmark {
+    
+    /*
+     * 250 ms, 1 day 2 hours 3 minutes 4 seconds 5 ms
+     */
+    @Param({ "250", "93784005" })
+    public long milliSeconds;
+    
+    public String numeric = " -1234567890 ";
+    
+    public String notNumeric = "12345x7890";
+    
+    public String envKey = "HADOOP_MASTER_NODES";
+    
+    private final StringBuilder sb = new StringBuilder(128);
+    
+    @Benchmark
+    public String compactHumanReadableTimeWithMs() {
+        return Daemon.compactHumanReadableTimeWithMs(milliSeconds);
+    }
+    
+    @Benchmark
+    public StringBuilder compactHumanReadableTimeWithMsAppend() {
+        sb.setLength(0);
+        return Daemon.compactHumanReadableTimeWithMs(milliSeconds, sb);
+    }
+    
+    @Benchmark
+    public boolean isNumeric() {
+        return Daemon.isNumeric(numeric);
+    }
+    
+    @Benchmark
+    public boolean isNumericFalse() {
+        return Daemon.isNumeric(notNumeric);
+    }
+    
+    @Benchmark
+    public String getTimeStamp() {
+        return Daemon.getTimeStamp();
+    }
+    
+    @Benchmark
+    public StringBuilder appendIsoTimeStamp() {
+        sb.setLength(0);
+        return Daemon.appendIsoTimeStamp(sb);
+    }
+    
+    @Benchmark
+    public String getenv() {
+        return HelloWorld.getenv(envKey);
+    }
+}
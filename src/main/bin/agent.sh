@@ -0,0 +1,34 @@
+#!/bin/sh
+#
+# Starts or stops the agent. Lives next to the agent jar and its dependency jars, which the jar's manifest
+# Class-Path refers to (mvn -Pappcds package lays target/ out this way).
+#
+#   agent.sh [--cds] {start|stop|status|reload|restart|train}
+#
+# --cds maps the class data sharing archive agent.jsa, built by the appcds profile, so the JVM does not have to
+# load and verify the Spring/AspectJ/cglib/Jackson classes one by one, and agents on the same host share the
+# archived class metadata. It needs a JDK 11 or later, like the appcds profile. The archive only matches the java
+# which built it and this exact jar layout; when it does not match, the JVM ignores it and starts normally (add
+# -Xlog:cds to JAVA_OPTS to see why).
+#
+
+cd "$(dirname "$0")" || exit 1
+
+JAVA="${JAVA_HOME:+$JAVA_HOME/bin/}java"
+JAR=$(ls SpringApp-*.jar 2>/dev/null | head -1)
+if [ -z "$JAR" ]; then
+    echo "agent jar not found in $(pwd)" >&2
+    exit 1
+fi
+
+CDS_OPTS=""
+if [ "$1" = "--cds" ]; then
+    shift
+    if [ -f agent.jsa ]; then
+        CDS_OPTS="-Xshare:auto -XX:SharedArchiveFile=agent.jsa"
+    else
+        echo "agent.jsa not found, starting without class data sharing" >&2
+    fi
+fi
+
+exec "$JAVA" $CDS_OPTS $JAVA_OPTS -jar "$JAR" "$@"
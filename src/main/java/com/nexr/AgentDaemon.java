@@ -1,15 +1,14 @@
 package com.nexr;
 
 import java.io.File;
-import java.util.List;
+import java.io.IOException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.ApplicationContext;
-import org.springframework.context.support.ClassPathXmlApplicationContext;
-
-import com.sun.tools.attach.VirtualMachine;
-import com.sun.tools.attach.VirtualMachineDescriptor;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.event.ContextRefreshedEvent;
 
 /**
  * ndap agent daemon
@@ -25,8 +24,23 @@ public class AgentDaemon extends Daemon {
     
     private static final String SPRING_ROOT_CONTEXT_PATH = "classpath:/spring/root-context.xml";
     
+    /*
+     * Same context, but finding the components by scanning the classpath, see -Dagent.componentScan=true
+     */
+    private static final String SPRING_SCAN_CONTEXT_PATH = "classpath:/spring/root-context-scan.xml";
+    
     private static final String STOP_REQUEST_FILENAME = "temp_requesting_stop_AgentDaemon";
     
+    private static final PidFile PID_FILE = new PidFile(new File("AgentDaemon.pid"));
+    
+    private static final File CONTROL_FILE = new File("AgentDaemon.control");
+    
+    private static final String HEARTBEAT_FILENAME = "AgentDaemon.heartbeat";
+    
+    private static final int CONTROL_TIMEOUT_MILLIS = 5000;
+    
+    private static DaemonControlServer controlServer = null;
+    
     private static Daemon daemon = null;
     
     // ------------------------------------------------------------------->
@@ -52,7 +66,7 @@ public class AgentDaemon extends Daemon {
         StringBuilder sb = new StringBuilder();
         sb.append("\nUsage: java ");
         sb.append(Daemon.class.getName());
-        sb.append(" {start|stop}");
+        sb.append(" {start|stop|status|reload|restart|train}");
         sb.append("\n\n");
         logger.error(sb.toString());
     }
@@ -77,11 +91,11 @@ public class AgentDaemon extends Daemon {
     private static void printStartupTime() {
         StringBuilder sb = new StringBuilder();
         sb.append("Startup Time: ");
-        sb.append(Daemon.getTimeStamp());
+        Daemon.appendTimeStamp(sb);
         sb.append("\n\n");
     }
     
-    private static ApplicationContext springContext = null;
+    private static volatile ApplicationContext springContext = null;
     
     @Override
     protected synchronized void customProcessInit() {
@@ -93,22 +107,122 @@ public class AgentDaemon extends Daemon {
             logger.debug("already loaded spring");
             return;
         }
-        springContext = new ClassPathXmlApplicationContext(SPRING_ROOT_CONTEXT_PATH);
-        logger.info("loaded spring context");
+        String contextPath = Boolean.getBoolean("agent.componentScan") ? SPRING_SCAN_CONTEXT_PATH
+                : SPRING_ROOT_CONTEXT_PATH;
+        final PhaseTimer timer = getStartupTimer();
+        
+        // Refresh explicitly so the refresh and the start of the @Scheduled tasks, which happens when the
+        // ContextRefreshedEvent reaches the scheduling post processor, show up as separate phases.
+        // -Dagent.initThreads=N runs the ParallelInitializingBean setups on N threads instead of one by one.
+        ParallelInitApplicationContext context = new ParallelInitApplicationContext(new String[] { contextPath },
+                Integer.getInteger("agent.initThreads", 1));
+        final DaemonConfig config = getConfig();
+        context.addApplicationListener(new ApplicationListener<ContextRefreshedEvent>() {
+            public void onApplicationEvent(ContextRefreshedEvent event) {
+                timer.mark("context refresh");
+                // This listener runs before the scheduling one, so the first task run can already report.
+                // The reporter is off unless the -Dagent.config file sets report.url.
+                event.getApplicationContext().getBean(HttpReporter.class).start(config);
+            }
+        });
+        context.refresh();
+        timer.mark("scheduler start");
+        
+        // Host lists set in the -Dagent.config file take precedence over the environment
+        context.getBean(ClusterTopologyService.class).refresh(getConfig());
+        
+        springContext = context;
+        logger.info("loaded spring context {}", contextPath);
+    }
+    
+    /**
+     * The work of the agent runs in the @Scheduled tasks of the Spring context. The processing loop is only a liveness
+     * signal: every iteration updates the heartbeat file, which watchdogs read with HeartbeatFile.
+     */
+    @Override
+    protected void customExecuteProcessing() throws Exception {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Loop Iteration Count = {}", getLoopIterationCount());
+        }
+    }
+    
+    /**
+     * Reads the cluster topology again on reload, with the host lists of the reloaded properties file.
+     */
+    @Override
+    protected synchronized void customProcessReload() throws Exception {
+        ApplicationContext context = springContext;
+        if (context != null) {
+            context.getBean(ClusterTopologyService.class).refresh(getConfig());
+        }
     }
     
+    /**
+     * Runs in the cleanup phase of Daemon.cleanup(), after the processing loop drained, and is interrupted when it takes
+     * longer than the cleanup deadline. The Spring context is shut down scheduler first, then executor, then the
+     * context, see SpringContextShutdown, so its 20 pool threads are gone when this returns.
+     */
     @Override
     protected synchronized void customProcessCleanup() throws Exception {
         logger.info("shuddown spring");
-        daemon.deleteStopRequestFile();
+        ApplicationContext context = springContext;
+        springContext = null;
+        try {
+            if (context instanceof ConfigurableApplicationContext) {
+                new SpringContextShutdown((ConfigurableApplicationContext) context).shutdown(getConfig()
+                        .getShutdownCleanupMillis());
+            }
+        } finally {
+            daemon.deleteStopRequestFile();
+            if (controlServer != null) {
+                controlServer.close();
+            }
+            PID_FILE.deleteIfOwned();
+        }
     }
     
+    /**
+     * Runs the agent until it is stopped. On a restart request (the restart command) the daemon and its Spring context
+     * are cleaned up like on a stop and then built again in the same JVM, which keeps the loaded classes and the JIT
+     * compiled code, so the agent is back at full speed right away.
+     */
     private static int start() {
+        printWelcome();
+        printStartupTime();
+        
+        int exitCode = runDaemon();
+        while (exitCode == 0 && daemon != null && daemon.isRestartRequested()) {
+            // The new daemon registers its own hook
+            daemon.removeShutdownHook();
+            logger.info("Restarting the agent in this JVM");
+            exitCode = runDaemon();
+        }
+        
+        return exitCode;
+    }
+    
+    /**
+     * One run of the agent, from init() until the processing loop stops and the daemon is cleaned up.
+     */
+    private static int runDaemon() {
+        // One agent per directory, the stop command finds it through the PID file. Checked before the daemon is
+        // built, so a refused start has nothing to clean up. On a restart the file may still be ours, when the
+        // cleanup of the previous run overran its deadline before deleting it.
+        try {
+            PidFile.Owner running = PID_FILE.readOtherLiveOwner();
+            if (running != null) {
+                logger.error("Agent already running with pid {}, see {}", running, PID_FILE.getFile());
+                return 1;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 1;
+        }
+        
         int exitCode;
         try {
-            printWelcome();
-            printStartupTime();
             daemon = new AgentDaemon();
+            PID_FILE.writeCurrentProcess();
             
             // I don't believe cleanup exceptions
             // area really fatal, but that's up to you...
@@ -119,6 +233,7 @@ public class AgentDaemon extends Daemon {
             
             // Set process loop sleep seconds
             // daemon.setProcessLoopSleepSecond(Integer.parseInt(args[1]));
+            // daemon.adaptiveLoop.minSleepMillis/maxSleepMillis in the agent.config file make it adaptive instead
             daemon.setProcessLoopSleepSecond(7);
             
             // Set the stop file watcher file path
@@ -127,16 +242,28 @@ public class AgentDaemon extends Daemon {
             // Set the stop file watcher sleep seconds
             daemon.setStopFileWatcherSleepSeconds(5);
             
+            // Optional properties file overriding the intervals above, see DaemonConfig for the keys.
+            // It is re-read whenever it changes.
+            String configPath = System.getProperty("agent.config");
+            if (configPath != null) {
+                daemon.loadProperties(configPath);
+            }
+            
             // Performance daemon Initialization,
             // again I don't like over use of the constructor.
             daemon.init();
+            if (configPath != null) {
+                daemon.startConfigFileWatcher();
+            }
             
             // Do the actually business logic execution!
             // If we made it to this point without an exception, that means
             // we are successful, the daemon exit code should be ZERO for
             // SUCCESS!
-            // daemon.startProcessingLoop();
-            daemon.startProcessingLoopFaked();
+            // The loop only keeps the heartbeat file going, see customExecuteProcessing()
+            daemon.openHeartbeatFile(HEARTBEAT_FILENAME);
+            daemon.startProcessingLoop();
+            // daemon.startProcessingLoopFaked();
             
             // Star the Stop File Watcher!
             // It is not enabled automatically
@@ -148,6 +275,13 @@ public class AgentDaemon extends Daemon {
             daemon.addShutdownHook(); // Just in case we get an interrupt
                                       // signal...
             
+            // Publish the loop metrics over JMX
+            daemon.registerLoopMetricsMBean();
+            
+            // Listen for stop, status, reload and restart commands, see -Dagent.controlPort
+            controlServer = new DaemonControlServer(daemon, CONTROL_FILE, Integer.getInteger("agent.controlPort", 0));
+            controlServer.start();
+            
             // Wait while the execution loop is running!
             daemon.waitWhileExecuting();
             
@@ -163,20 +297,7 @@ public class AgentDaemon extends Daemon {
         } finally {
             if (daemon != null) {
                 try {
-                    daemon.stopStopFileWatcher(); // Just in case stop file
-                                                  // watcher
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-                
-                try {
-                    daemon.stopProcessingLoop(); // Just in case stop processing
-                                                 // loop
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-                
-                try {
+                    // Stops the stop file watcher and the processing loop too, each within its deadline
                     // Technically we don't need to do this because
                     // of the shutdown hook
                     // But I like to be explicit here to show when during a
@@ -209,57 +330,112 @@ public class AgentDaemon extends Daemon {
         return exitCode;
     }
     
-    private static int stop() {
-        return stopByFile() | stopByPid();
-        // return stopByPid();
+    /**
+     * A short start/stop cycle: starts like start(), and requests the stop through the stop file -Dagent.trainingMillis
+     * (5 seconds by default) after the Spring context is up, so that the first scheduled task runs and the stop path is
+     * taken too. The wait starts after init() since init() deletes any stop file left over. The appcds profile of the
+     * pom runs it to record the classes a normal run loads.
+     */
+    private static int train() {
+        final long trainingMillis = Long.getLong("agent.trainingMillis", 5000L);
+        Thread stopper = new Thread("TrainingStop") {
+            @Override
+            public void run() {
+                try {
+                    while (springContext == null) {
+                        Thread.sleep(100);
+                    }
+                    Thread.sleep(trainingMillis);
+                    stopByFile();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        stopper.setDaemon(true);
+        stopper.start();
+        return start();
     }
     
     /**
-     * @return
+     * Requests the stop through the control endpoint, or the stop file if the agent does not answer there, and waits for
+     * the agent named in the PID file to exit,
+     * -Dagent.stopTimeoutMillis (30 seconds by default). Only if it is still running then, it gets a SIGTERM, which runs
+     * the shutdown hook, and is waited for once more. Returns 1 if the agent did not exit.
      */
-    private static int stopByFile() {
+    private static int stop() {
         int exitCode = 0;
         try {
-            // create stop file
-            File file = new File(STOP_REQUEST_FILENAME);
-            file.createNewFile();
-            exitCode = 0;
-        } // End try block
-        catch (Exception e) {
-            exitCode = 1; // If there was an exception, the daemon exit code
-                          // should
-            // be NON-ZERO for FAILURE!
-            
-            e.printStackTrace(); // Log the exception, if you have an Exception
-            // email utility like I do, use that instead.
+            logger.info(DaemonControlClient.send(CONTROL_FILE, "stop", CONTROL_TIMEOUT_MILLIS));
+        } catch (IOException e) {
+            logger.info("No control endpoint ({}), using the stop file", e.toString());
+            exitCode = stopByFile();
         }
         
-        return exitCode;
+        try {
+            PidFile.Owner agent = PID_FILE.readLiveOwner();
+            if (agent == null) {
+                logger.info("No running agent found in {}", PID_FILE.getFile());
+                return exitCode;
+            }
+            
+            long timeoutMillis = Long.getLong("agent.stopTimeoutMillis", 30000L);
+            if (agent.waitForExit(timeoutMillis)) {
+                logger.info("Agent {} stopped", agent);
+                return exitCode;
+            }
+            
+            logger.warn("Agent {} did not stop within {} ms, sending SIGTERM", agent, timeoutMillis);
+            if (terminate(agent) && agent.waitForExit(timeoutMillis)) {
+                logger.info("Agent {} terminated", agent);
+                return exitCode;
+            }
+            logger.error("Agent {} is still running", agent);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return 1;
     }
     
-    private static boolean isDaemonProcess(String psDisplayName) {
-        boolean startedByJar = psDisplayName.indexOf("ndap-agent-") >= 0 && psDisplayName.indexOf("start") >= 0 ? true
-                : false;
-        boolean startedByClass = psDisplayName.indexOf("AgentDaemon start") >= 0 ? true : false;
-        return startedByJar || startedByClass;
+    /**
+     * Sends a status, reload or restart command to the running agent and prints the response. Returns 0 if it starts with "OK".
+     */
+    private static int control(String command) {
+        try {
+            String response = DaemonControlClient.send(CONTROL_FILE, command, CONTROL_TIMEOUT_MILLIS);
+            System.out.println(response);
+            return response.startsWith("OK") ? 0 : 1;
+        } catch (IOException e) {
+            logger.error("Agent not reachable through {}: {}", CONTROL_FILE, e.toString());
+            return 1;
+        }
     }
     
-    private static int stopByPid() {
-        
+    /**
+     * Sends SIGTERM to the agent. Java 7 has no API to signal another process, so this runs kill once, directly (no
+     * shell), and only for a pid checked against the start time in the PID file just before.
+     */
+    private static boolean terminate(PidFile.Owner agent) throws IOException, InterruptedException {
+        if (!agent.isAlive()) {
+            return true;
+        }
+        Process kill = new ProcessBuilder("kill", "-TERM", Long.toString(agent.getPid())).redirectErrorStream(true)
+                .start();
+        return kill.waitFor() == 0;
+    }
+    
+    /**
+     * @return
+     */
+    private static int stopByFile() {
         int exitCode = 0;
         try {
-            List<VirtualMachineDescriptor> vms = VirtualMachine.list();
-            for (VirtualMachineDescriptor desc : vms) {
-                logger.debug(desc.toString());
-                if (isDaemonProcess(desc.displayName())) {
-                    logger.info(desc.toString());
-                    // String killCommand = "kill -KILL "+desc.id();
-                    String killCommand = "kill -SIGTERM " + desc.id();
-                    logger.info(killCommand);
-                    Runtime.getRuntime().exec(killCommand);
-                }
-                
-            }
+            // create stop file
+            File file = new File(STOP_REQUEST_FILENAME);
+            file.createNewFile();
+            exitCode = 0;
         } // End try block
         catch (Exception e) {
             exitCode = 1; // If there was an exception, the daemon exit code
@@ -293,8 +469,12 @@ public class AgentDaemon extends Daemon {
                 exitCode = AgentDaemon.start();
             } else if ("stop".equals(command)) {
                 exitCode = AgentDaemon.stop();
+            } else if ("status".equals(command) || "reload".equals(command) || "restart".equals(command)) {
+                exitCode = AgentDaemon.control(command);
+            } else if ("train".equals(command)) {
+                exitCode = AgentDaemon.train();
             } else {
-                logger.warn("Unknown command: " + command);
+                logger.warn("Unknown command: {}", command);
                 printUsage();
                 exitCode = 1;
             }
@@ -307,7 +487,7 @@ public class AgentDaemon extends Daemon {
         // so we don't miss anything in the logs.
         System.out.flush();
         System.err.flush();
-        logger.info("Daemon Exit Code = " + exitCode);
+        logger.info("Daemon Exit Code = {}", exitCode);
         System.out.flush();
         
         // Make sure to return the exit code to the parent process
@@ -0,0 +1,105 @@
+package com.nexr;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock free, multi producer ring buffer (the array based queue by Dmitry Vyukov).
+ * 
+ * Every slot carries a sequence number which tells producers and consumers whose turn it is, so offer() and poll()
+ * only need one compare-and-set on the shared position and never block. offer() simply returns false when the buffer
+ * is full, it is up to the caller to decide whether to drop the element or retry.
+ */
+class BoundedRingBuffer<E> {
+    
+    private final int mask;
+    
+    private final AtomicReferenceArray<E> elements;
+    
+    private final AtomicLongArray sequences;
+    
+    private final AtomicLong enqueuePosition = new AtomicLong();
+    
+    private final AtomicLong dequeuePosition = new AtomicLong();
+    
+    /**
+     * @param capacity the capacity, rounded up to the next power of two
+     */
+    BoundedRingBuffer(int capacity) {
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("capacity out of range: " + capacity);
+        }
+        
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        
+        mask = size - 1;
+        elements = new AtomicReferenceArray<E>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+    
+    int capacity() {
+        return mask + 1;
+    }
+    
+    /**
+     * Adds an element, returns false if the buffer is full.
+     */
+    boolean offer(E element) {
+        long pos = enqueuePosition.get();
+        
+        while (true) {
+            int index = (int) pos & mask;
+            long diff = sequences.get(index) - pos;
+            
+            if (diff == 0) {
+                if (enqueuePosition.compareAndSet(pos, pos + 1)) {
+                    elements.lazySet(index, element);
+                    sequences.set(index, pos + 1);
+                    return true;
+                }
+                pos = enqueuePosition.get();
+            } else if (diff < 0) {
+                return false; // full
+            } else {
+                pos = enqueuePosition.get();
+            }
+        }
+    }
+    
+    /**
+     * Removes the oldest element, returns null if the buffer is empty.
+     */
+    E poll() {
+        long pos = dequeuePosition.get();
+        
+        while (true) {
+            int index = (int) pos & mask;
+            long diff = sequences.get(index) - (pos + 1);
+            
+            if (diff == 0) {
+                if (dequeuePosition.compareAndSet(pos, pos + 1)) {
+                    E element = elements.get(index);
+                    elements.lazySet(index, null);
+                    sequences.set(index, pos + mask + 1);
+                    return element;
+                }
+                pos = dequeuePosition.get();
+            } else if (diff < 0) {
+                return null; // empty
+            } else {
+                pos = dequeuePosition.get();
+            }
+        }
+    }
+    
+    boolean isEmpty() {
+        return dequeuePosition.get() >= enqueuePosition.get();
+    }
+}
@@ -0,0 +1,156 @@
+package com.nexr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The roles of the hosts of the cluster, parsed once from the space separated host lists in the HADOOP_MASTER_NODES
+ * and ZOOKEEPER_NODES environment variables.
+ * 
+ * Immutable. Host names are compared case insensitively. A host's roles are kept as a bit set (one bit per Role
+ * ordinal) in a hash map, so a role check is one lookup, and the roles of the local host are precomputed, so checking
+ * those is a bit test. See ClusterTopologyService for the current topology of the agent.
+ */
+public final class ClusterTopology {
+    
+    /**
+     * A role of a cluster host, and the environment variable listing the hosts which have it.
+     */
+    public enum Role {
+        HADOOP_MASTER("HADOOP_MASTER_NODES"),
+        ZOOKEEPER("ZOOKEEPER_NODES");
+        
+        private final String envKey;
+        
+        private Role(String envKey) {
+            this.envKey = envKey;
+        }
+        
+        public String getEnvKey() {
+            return envKey;
+        }
+        
+        int bit() {
+            return 1 << ordinal();
+        }
+    }
+    
+    private static final Role[] ROLES = Role.values();
+    
+    private final String localHost;
+    
+    private final int localRoles;
+    
+    private final Map<String, Integer> rolesByHost;
+    
+    /*
+     * Indexed by Role ordinal, unmodifiable
+     */
+    private final List<List<String>> hostsByRole;
+    
+    private ClusterTopology(String localHost, Map<String, Integer> rolesByHost, List<List<String>> hostsByRole) {
+        this.localHost = localHost;
+        this.rolesByHost = rolesByHost;
+        this.hostsByRole = hostsByRole;
+        
+        Integer roles = rolesByHost.get(localHost);
+        this.localRoles = roles == null ? 0 : roles;
+    }
+    
+    /**
+     * Parses the host lists of each role.
+     * 
+     * @param hostLists the value of the environment variable of each role, indexed by Role ordinal; null for a role
+     *            without hosts. Host names are separated by white space or commas.
+     * @param localHost the name of this host
+     */
+    public static ClusterTopology parse(String[] hostLists, String localHost) {
+        if (hostLists.length != ROLES.length) {
+            throw new IllegalArgumentException("Expected " + ROLES.length + " host lists, got " + hostLists.length);
+        }
+        
+        Map<String, Integer> rolesByHost = new HashMap<String, Integer>();
+        List<List<String>> hostsByRole = new ArrayList<List<String>>(ROLES.length);
+        
+        for (Role role : ROLES) {
+            List<String> hosts = new ArrayList<String>();
+            String list = hostLists[role.ordinal()];
+            
+            if (list != null) {
+                for (String host : list.trim().split("[\\s,]+")) {
+                    if (host.isEmpty()) {
+                        continue;
+                    }
+                    host = normalize(host);
+                    
+                    Integer roles = rolesByHost.get(host);
+                    int bits = roles == null ? 0 : roles;
+                    if ((bits & role.bit()) == 0) {
+                        rolesByHost.put(host, bits | role.bit());
+                        hosts.add(host);
+                    }
+                }
+            }
+            hostsByRole.add(Collections.unmodifiableList(Arrays.asList(hosts.toArray(new String[hosts.size()]))));
+        }
+        
+        return new ClusterTopology(normalize(localHost), rolesByHost, Collections.unmodifiableList(hostsByRole));
+    }
+    
+    private static String normalize(String host) {
+        return host.toLowerCase(Locale.ENGLISH);
+    }
+    
+    public String getLocalHost() {
+        return localHost;
+    }
+    
+    /**
+     * Returns the roles of a host as a bit set, bit n standing for the Role of ordinal n. 0 for unknown hosts.
+     */
+    public int getRoles(String host) {
+        Integer roles = rolesByHost.get(normalize(host));
+        return roles == null ? 0 : roles;
+    }
+    
+    public boolean hasRole(String host, Role role) {
+        return (getRoles(host) & role.bit()) != 0;
+    }
+    
+    /**
+     * true if this host has the role. Does not allocate.
+     */
+    public boolean isLocalHost(Role role) {
+        return (localRoles & role.bit()) != 0;
+    }
+    
+    public boolean isLocalHadoopMaster() {
+        return isLocalHost(Role.HADOOP_MASTER);
+    }
+    
+    public boolean isLocalZookeeper() {
+        return isLocalHost(Role.ZOOKEEPER);
+    }
+    
+    /**
+     * Returns the hosts which have the role, in the order of their environment variable, without duplicates.
+     */
+    public List<String> getHosts(Role role) {
+        return hostsByRole.get(role.ordinal());
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append("local host ").append(localHost);
+        for (Role role : ROLES) {
+            sb.append(", ").append(role).append('=').append(getHosts(role));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,100 @@
+package com.nexr;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * Holds the current ClusterTopology of the agent. The environment is read and parsed once, at startup and on every
+ * refresh(), instead of on each role check; readers get an immutable snapshot.
+ * 
+ * The environment of a process does not change, so the host lists can also be set in the daemon's properties file,
+ * under the names of the environment variables, where they take precedence. The agent refreshes the topology from
+ * there on reload (see AgentDaemon.customProcessReload()).
+ */
+@Service
+public class ClusterTopologyService implements ParallelInitializingBean {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ClusterTopologyService.class);
+    
+    private volatile ClusterTopology topology;
+    
+    private volatile String localHostName;
+    
+    /*
+     * The configuration whose properties override the environment, see refresh(DaemonConfig)
+     */
+    private volatile DaemonConfig overrides;
+    
+    /**
+     * Resolves the local host name, which may take a DNS lookup, and reads the topology.
+     */
+    public void initialize() {
+        refresh();
+    }
+    
+    /**
+     * Returns the current topology, reading it first if that did not happen yet.
+     */
+    public ClusterTopology getTopology() {
+        ClusterTopology t = topology;
+        return t != null ? t : refresh();
+    }
+    
+    /**
+     * Takes the host lists set in the properties of config, the environment for the others, and swaps in the new
+     * topology.
+     */
+    public ClusterTopology refresh(DaemonConfig config) {
+        overrides = config;
+        return refresh();
+    }
+    
+    /**
+     * Reads and parses the host lists again and swaps in the new topology.
+     */
+    public synchronized ClusterTopology refresh() {
+        DaemonConfig config = overrides;
+        ClusterTopology.Role[] roles = ClusterTopology.Role.values();
+        String[] hostLists = new String[roles.length];
+        for (ClusterTopology.Role role : roles) {
+            String key = role.getEnvKey();
+            String hosts = config != null ? config.getProperty(key) : null;
+            hostLists[role.ordinal()] = hosts != null ? hosts : getenv(key);
+        }
+        
+        ClusterTopology t = ClusterTopology.parse(hostLists, getLocalHostName());
+        topology = t;
+        logger.info("Cluster topology: {}", t);
+        return t;
+    }
+    
+    /**
+     * Overrides the name of this host, by default InetAddress.getLocalHost().getHostName(). Applies on the next
+     * refresh().
+     */
+    public void setLocalHostName(String localHostName) {
+        this.localHostName = localHostName;
+    }
+    
+    private String getLocalHostName() {
+        String name = localHostName;
+        if (name == null) {
+            try {
+                name = InetAddress.getLocalHost().getHostName();
+            } catch (UnknownHostException e) {
+                logger.warn("Can not resolve the local host name, using localhost: {}", e.toString());
+                name = "localhost";
+            }
+            localHostName = name;
+        }
+        return name;
+    }
+    
+    protected String getenv(String key) {
+        return StaticClass.getenv(key);
+    }
+}
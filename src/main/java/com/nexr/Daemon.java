@@ -17,7 +17,17 @@ package com.nexr;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,6 +54,40 @@ import org.slf4j.LoggerFactory;
         "PMD.CyclomaticComplexity", "PMD.AvoidThreadGroup" })
 public class Daemon {
     
+    /*
+     * Format of getTimeStamp(), see setIsoTimeStamps().
+     */
+    private static volatile boolean isoTimeStamps = false;
+    
+    /**
+     * What a fixed rate processing loop does when an iteration took longer than the loop interval and one or more ticks
+     * have been missed.
+     */
+    public enum LoopOverrunPolicy {
+        /** Drop the missed ticks and wait for the next tick on the original schedule. */
+        SKIP,
+        /** Run the missed ticks one after the other, without sleeping, until the loop is back on schedule. */
+        CATCH_UP,
+        /** Run the next iteration right away and restart the schedule from there. */
+        BACK_TO_BACK
+    }
+    
+    /*
+     * How long a shutdown phase still waits after it interrupted the threads which ran past its deadline.
+     */
+    private static final long FORCED_STOP_GRACE_MILLIS = 1000;
+    
+    /**
+     * Returned by customExecuteProcessingWork() when the hook does not tell how much work it did.
+     */
+    public static final long WORK_UNKNOWN = -1;
+    
+    /*
+     * An adaptive loop sleeps a random 0 to 20% less than its interval, so daemons started together drift apart instead
+     * of waking up in step.
+     */
+    private static final double ADAPTIVE_JITTER = 0.2;
+    
     private final Logger logger = LoggerFactory.getLogger(Daemon.class);
     
     /*
@@ -59,15 +103,47 @@ public class Daemon {
      * Standalone Process Template. Feel free to replace this field with a more advanced configuration management
      * mechanism that means your needs.
      */
-    private Properties appProps;
+    private volatile Properties appProps;
+    
+    /*
+     * The file loadProperties() read appProps from, re-read by reload()
+     */
+    private volatile String appPropsPath;
+    
+    /*
+     * The current configuration snapshot. It is only ever replaced as a whole, under configLock, so readers see either
+     * the old or the new snapshot.
+     */
+    private volatile DaemonConfig config = DaemonConfig.DEFAULTS;
+    
+    /*
+     * The configuration set in code, without the properties file. A key the file does not set takes its value from
+     * here, also on reload, so the file on disk always describes the running configuration. Guarded by configLock.
+     */
+    private DaemonConfig baseConfig = DaemonConfig.DEFAULTS;
+    
+    private final Object configLock = new Object();
+    
+    /*
+     * Watches the properties file for changes once startConfigFileWatcher() is called
+     */
+    private FileChangeWatcher configFileWatcher;
+    
+    private final Object configFileWatcherLock = new Object();
     
     /*
      * This flag ensures that the Cleanup method only runs once. This is because I wanted to have a shutdown hook, in
      * case the process receives an interrupt signal and in the main method, I explicitly call cleanup() from the
      * finally block. Technically the shutdown hook based on my implementation is only a backup so it actually will
      * never run unless there's a situation like an interrupt signal.
+     * 
+     * Whoever comes second waits on the shutdownLock for the first one to finish, so the shutdown hook does not let the
+     * JVM exit while the main thread is still cleaning up. Cleanup does not hold the daemon's own monitor, which a hung
+     * customExecuteProcessing() may be holding.
      */
-    private boolean ranCleanup = false;
+    private volatile boolean ranCleanup = false;
+    
+    private final Object shutdownLock = new Object();
     
     /*
      * If this variable is set to true, any exception caused in the cleanup routine will cause the entire process to
@@ -85,40 +161,76 @@ public class Daemon {
     private final Object loopControlLock = new Object();
     
     /*
-     * A flag with tells the start and stop methods if the execution loop thread has started or not.
+     * The number of execution loop worker threads currently running. It tells the start and stop methods if the
+     * execution loop threads have started or not.
+     */
+    private int loopWorkersStarted;
+    
+    /*
+     * The number of execution loop worker threads started by startProcessingLoop(). Each worker runs the processing
+     * hook for its own partition of the work, see customExecuteProcessing(int, int).
      */
-    private boolean loopStarted;
+    private int loopWorkerCount = 1;
+    
+    /*
+     * The execution loop workers of the current run of the processing loop.
+     */
+    private volatile ExecutionLoopWorker[] loopWorkers = new ExecutionLoopWorker[0];
     
     /*
      * This flag tells the start, stop, and waitWhileExecution methods if the process loop is running. It is also used
-     * to STOP the process loop from running.
+     * to STOP the process loop from running. Every change of this flag is signalled on the loopControlLock monitor so
+     * a sleeping loop or a waiting caller wakes up right away instead of on its next timer tick.
      */
-    private boolean runProcessing = false;
+    private volatile boolean runProcessing = false;
     
     /*
-     * This parameter needs to be set in order for the process loop to sleep a certain number of seconds between each
-     * consecutive call to the actual processing logic method.
+     * Set by requestRestart(). The loop stops as on a stop request, and the embedding main() builds a new daemon in the
+     * same JVM instead of exiting.
      */
-    private int processLoopSleepSecs;
+    private volatile boolean restartRequested = false;
     
     /*
-     * This field is used as a counter for the number of processing loop iterations. For debugging, logging, and even
-     * custom logic implementation purposes, this is a nice piece of information to have.
+     * The thread registered by addShutdownHook(), so a daemon which is replaced in-process can take it back
      */
-    private long loopIterationCnt;
+    private Thread shutdownHook;
     
     /*
-     * This is the file path for the stop file watcher to watch. When the stop file watcher thread finds the stop file
-     * at this location, it will gracefully shutdown the daemon process.
+     * When this flag is false (the default) the processing loop is fixed delay: it sleeps processLoopSleepMillis after
+     * each iteration returns, so the real period is the sleep plus however long the iteration took. When it is true the
+     * loop is fixed rate: iterations start every processLoopSleepMillis on a System.nanoTime() schedule, and
+     * loopOverrunPolicy decides what happens when an iteration runs past its next tick.
      */
-    private String stopFilePath;
+    private boolean fixedRateLoop = false;
+    
+    private LoopOverrunPolicy loopOverrunPolicy = LoopOverrunPolicy.SKIP;
     
     /*
-     * We don't want to spend too many cycles watching for a stop file especially since a daemon process normally runs
-     * for hours, days, or even weeks, so we have a separate sleep seconds variable to control the interval between file
-     * system checks.
+     * Iteration latency, failure and busy/sleep time metrics of the processing loop. They are always recorded, and
+     * published over JMX by registerLoopMetricsMBean().
      */
-    private int stopFileSleepSecs;
+    private final DaemonLoopMetrics loopMetrics = new DaemonLoopMetrics(this);
+    
+    /*
+     * Memory-mapped liveness of the processing loop for out of process watchdogs, see openHeartbeatFile()
+     */
+    private volatile HeartbeatFile heartbeatFile;
+    
+    /*
+     * Time spent in each phase of init(). Implementations can mark their own phases inside customProcessInit().
+     */
+    private final PhaseTimer startupTimer = new PhaseTimer("Startup timing");
+    
+    /*
+     * Time spent in each phase of cleanup(), logged when it is done.
+     */
+    private final PhaseTimer shutdownTimer = new PhaseTimer("Shutdown timing");
+    
+    /*
+     * This is the file path for the stop file watcher to watch. When the stop file watcher thread finds the stop file
+     * at this location, it will gracefully shutdown the daemon process.
+     */
+    private String stopFilePath;
     
     /*
      * This flag tells the start, stop file watcher methods if the file watcher loop is running.
@@ -135,6 +247,20 @@ public class Daemon {
      */
     private boolean stopFileWarcherLoopStarted;
     
+    /*
+     * When this flag is true the stop file watcher blocks on a WatchService registered on the stop file's parent
+     * directory and reacts to the create event right away instead of checking the file every few seconds. Set it to
+     * false for file systems which do not deliver watch events (NFS for example), the watcher then falls back to the
+     * original polling loop. The watcher also falls back on its own if the watch service can not be registered.
+     */
+    private boolean stopFileWatchServiceEnabled = true;
+    
+    /*
+     * The watch service used by the stop file watcher thread while it is running in watch mode. It is closed by
+     * stopStopFileWatcher() to wake up the blocked watcher thread.
+     */
+    private volatile WatchService stopFileWatchService;
+    
     // Start public methods that shouldn't be customized by the user
     // ------------------------------------------------------------------->
     
@@ -151,17 +277,34 @@ public class Daemon {
     public synchronized void init() {
         long start, end, total;
         
-        logger.debug("Initialization at: " + getTimeStamp());
+        if (logger.isDebugEnabled()) {
+            logger.debug("Initialization at: {}", getTimeStamp());
+        }
         start = System.currentTimeMillis();
+        startupTimer.start();
         
         readProperties(); // Hook to the user's read properties method.
+        startupTimer.mark("properties");
+        
         customProcessInit(); // Hook to the user's custom process init method!
+        startupTimer.mark("other init");
         
         end = System.currentTimeMillis();
         total = end - start;
         
-        logger.debug("Initialization Completed at: " + getTimeStamp());
-        logger.debug("Total Init Execution Time: " + compactHumanReadableTimeWithMs(total));
+        if (logger.isDebugEnabled()) {
+            logger.debug("Initialization Completed at: {}", getTimeStamp());
+            logger.debug("Total Init Execution Time: {}", compactHumanReadableTimeWithMs(total));
+        }
+        logger.info("{}", startupTimer);
+    }
+    
+    /**
+     * Returns the timer of the init() phases. customProcessInit() implementations can call mark() on it to break their
+     * own work down into phases in the startup timing report.
+     */
+    protected PhaseTimer getStartupTimer() {
+        return startupTimer;
     }
     
     /**
@@ -175,12 +318,18 @@ public class Daemon {
      * with the properties after the properties load.
      */
     public void loadProperties(String appPropsPath) throws IOException {
+        appProps = readPropertiesFile(appPropsPath);
+        this.appPropsPath = appPropsPath;
+    }
+    
+    private static Properties readPropertiesFile(String path) throws IOException {
         FileInputStream fis = null;
         
         try {
-            fis = new FileInputStream(appPropsPath);
-            appProps = new Properties();
-            appProps.load(fis);
+            fis = new FileInputStream(path);
+            Properties props = new Properties();
+            props.load(fis);
+            return props;
         } // End try block
         finally {
             if (fis != null) {
@@ -192,6 +341,25 @@ public class Daemon {
         }
     }
     
+    /**
+     * Returns the current configuration snapshot. Read it once and use that snapshot for a whole unit of work.
+     */
+    public DaemonConfig getConfig() {
+        return config;
+    }
+    
+    /**
+     * Swaps in a new configuration snapshot, and wakes up the sleeping loop workers so a changed loop interval applies
+     * to the sleep they are in.
+     */
+    private void applyConfig(DaemonConfig newConfig) {
+        config = newConfig;
+        
+        synchronized (loopControlLock) {
+            loopControlLock.notifyAll();
+        }
+    }
+    
     /**
      * This method sets the number of seconds the process loop will sleep between each call to the logic processing
      * method.
@@ -199,7 +367,197 @@ public class Daemon {
      * @param processLoopSleepSecs
      */
     public void setProcessLoopSleepSecond(int processLoopSleepSecs) {
-        this.processLoopSleepSecs = processLoopSleepSecs;
+        setProcessLoopSleepMillis(TimeUnit.SECONDS.toMillis(processLoopSleepSecs));
+    }
+    
+    /**
+     * This method sets the number of milliseconds the process loop will sleep between each call to the logic processing
+     * method. Use this one instead of setProcessLoopSleepSecond() when the loop needs to run more often than once a
+     * second.
+     * 
+     * @param processLoopSleepMillis
+     */
+    public void setProcessLoopSleepMillis(long processLoopSleepMillis) {
+        synchronized (configLock) {
+            baseConfig = baseConfig.withProcessLoopSleepMillis(processLoopSleepMillis);
+            applyConfig(config.withProcessLoopSleepMillis(processLoopSleepMillis));
+        }
+    }
+    
+    /**
+     * This method sets the deadlines of the shutdown phases, see cleanup(). They can also be set in the properties
+     * file, see DaemonConfig.
+     * 
+     * @param drainMillis how long to wait for the loop workers to finish their iteration before interrupting them
+     * @param cleanupMillis how long to wait for customProcessCleanup() before interrupting it
+     * @param flushMillis how long to wait for buffered log events to be written
+     */
+    public void setShutdownDeadlines(long drainMillis, long cleanupMillis, long flushMillis) {
+        synchronized (configLock) {
+            baseConfig = baseConfig.withShutdownDeadlines(drainMillis, cleanupMillis, flushMillis);
+            applyConfig(config.withShutdownDeadlines(drainMillis, cleanupMillis, flushMillis));
+        }
+    }
+    
+    /**
+     * Returns the timer of the cleanup() phases, filled in once cleanup() ran.
+     */
+    public PhaseTimer getShutdownTimer() {
+        return shutdownTimer;
+    }
+    
+    /**
+     * This method switches the adaptive loop interval on, with maxSleepMillis above 0, or off. The loop then sleeps
+     * minSleepMillis after an iteration which found work, and doubles its sleep after every iteration which found none,
+     * up to maxSleepMillis, see customExecuteProcessingWork(). The bounds can also be set in the properties file, see
+     * DaemonConfig.
+     * 
+     * @param minSleepMillis
+     * @param maxSleepMillis
+     */
+    public void setAdaptiveLoopSleepMillis(long minSleepMillis, long maxSleepMillis) {
+        synchronized (configLock) {
+            baseConfig = baseConfig.withAdaptiveSleepBounds(minSleepMillis, maxSleepMillis);
+            applyConfig(config.withAdaptiveSleepBounds(minSleepMillis, maxSleepMillis));
+        }
+    }
+    
+    /**
+     * Returns the current adaptive loop interval, the longest one of all the workers, before jitter. 0 before the first
+     * adaptive sleep.
+     */
+    public long getAdaptiveSleepMillis() {
+        long max = 0;
+        
+        for (ExecutionLoopWorker worker : loopWorkers) {
+            max = Math.max(max, worker.adaptiveSleepMillis);
+        }
+        
+        return max;
+    }
+    
+    /**
+     * This method switches the processing loop between fixed delay (false, the default) and fixed rate (true)
+     * scheduling.
+     * 
+     * @param fixedRateLoop
+     */
+    public void setFixedRateLoop(boolean fixedRateLoop) {
+        this.fixedRateLoop = fixedRateLoop;
+    }
+    
+    /**
+     * This method sets what a fixed rate processing loop does when an iteration overruns its period.
+     * 
+     * @param loopOverrunPolicy
+     */
+    public void setLoopOverrunPolicy(LoopOverrunPolicy loopOverrunPolicy) {
+        if (loopOverrunPolicy == null) {
+            throw new IllegalArgumentException("loopOverrunPolicy must not be null");
+        }
+        this.loopOverrunPolicy = loopOverrunPolicy;
+    }
+    
+    /**
+     * Returns the number of fixed rate loop iterations, summed over all the workers, which ran past the start of the
+     * next tick.
+     */
+    public long getLoopOverrunCount() {
+        long total = 0;
+        
+        for (ExecutionLoopWorker worker : loopWorkers) {
+            total += worker.overrunCnt;
+        }
+        
+        return total;
+    }
+    
+    /**
+     * Returns the metrics of the processing loop.
+     */
+    public DaemonLoopMetrics getLoopMetrics() {
+        return loopMetrics;
+    }
+    
+    /**
+     * Publishes the processing loop metrics on the platform MBeanServer, under com.nexr:type=Daemon,name=<the simple
+     * class name of this daemon>. They are unregistered again by cleanup().
+     * 
+     * Like the shutdown hook, this is optional so a wrapper component can decide how it wants to expose the metrics.
+     */
+    public void registerLoopMetricsMBean() throws JMException {
+        String name = getClass().getSimpleName();
+        loopMetrics.register(isNVL(name) ? getClass().getName() : name);
+    }
+    
+    /**
+     * Creates the heartbeat file at the given path, updated by the processing loop after every iteration. Watchdogs read
+     * it with HeartbeatFile.read(). It is left behind in state stopped by cleanup().
+     * 
+     * @param heartbeatFilePath
+     * @throws IOException
+     */
+    public void openHeartbeatFile(String heartbeatFilePath) throws IOException {
+        heartbeatFile = HeartbeatFile.create(new File(heartbeatFilePath));
+        if (runProcessing) {
+            heartbeatFile.setState(HeartbeatFile.STATE_RUNNING);
+        }
+    }
+    
+    private void setHeartbeatState(int state) {
+        HeartbeatFile hb = heartbeatFile;
+        
+        if (hb != null) {
+            hb.setState(state);
+        }
+    }
+    
+    /**
+     * This method sets the number of execution loop worker threads started by startProcessingLoop(). Each worker calls
+     * customExecuteProcessing(int, int) with its own index, so implementations can split the work between them.
+     * 
+     * @param loopWorkerCount
+     */
+    public void setLoopWorkerCount(int loopWorkerCount) {
+        if (loopWorkerCount < 1) {
+            throw new IllegalArgumentException("loopWorkerCount must be at least 1: " + loopWorkerCount);
+        }
+        this.loopWorkerCount = loopWorkerCount;
+    }
+    
+    /**
+     * Returns the total number of processing loop iterations of all the workers. For debugging, logging, and even
+     * custom logic implementation purposes, this is a nice piece of information to have.
+     */
+    public long getLoopIterationCount() {
+        long total = 0;
+        
+        for (ExecutionLoopWorker worker : loopWorkers) {
+            total += worker.iterationCnt;
+        }
+        
+        return total;
+    }
+    
+    /**
+     * Returns true from startProcessingLoop() until a stop of the processing loop is requested.
+     */
+    public boolean isProcessingLoopRunning() {
+        return runProcessing;
+    }
+    
+    /**
+     * Returns the number of processing loop iterations of each worker, indexed by worker index.
+     */
+    public long[] getLoopIterationCounts() {
+        ExecutionLoopWorker[] workers = loopWorkers;
+        long[] counts = new long[workers.length];
+        
+        for (int i = 0; i < workers.length; i++) {
+            counts[i] = workers[i].iterationCnt;
+        }
+        
+        return counts;
     }
     
     /**
@@ -208,7 +566,20 @@ public class Daemon {
      * @param stopFileSleepSecs
      */
     public void setStopFileWatcherSleepSeconds(int stopFileSleepSecs) {
-        this.stopFileSleepSecs = stopFileSleepSecs;
+        synchronized (configLock) {
+            baseConfig = baseConfig.withStopFileSleepSecs(stopFileSleepSecs);
+            applyConfig(config.withStopFileSleepSecs(stopFileSleepSecs));
+        }
+    }
+    
+    /**
+     * This method enables or disables the event driven stop file watcher. When disabled, the stop file watcher polls
+     * for the stop file every stopFileSleepSecs seconds.
+     * 
+     * @param stopFileWatchServiceEnabled
+     */
+    public void setStopFileWatchServiceEnabled(boolean stopFileWatchServiceEnabled) {
+        this.stopFileWatchServiceEnabled = stopFileWatchServiceEnabled;
     }
     
     /**
@@ -230,53 +601,123 @@ public class Daemon {
      * signal or other fatal issue where somehow the finally block didn't get called the Runtime shutdown hook will
      * invoke this method on System.exit...
      * 
+     * The cleanup runs in phases, each bounded by a deadline of the DaemonConfig, so a hung iteration or a hung cleanup
+     * hook can not keep the process from exiting:
+     * <ol>
+     * <li>stop intake - the stop file and config file watchers stop, and the loop is asked to stop after its current
+     * iteration</li>
+     * <li>drain - waits for the loop workers to finish their iteration, up to the drain deadline, then interrupts
+     * them</li>
+     * <li>cleanup - customProcessCleanup(), on its own thread, interrupted after the cleanup deadline</li>
+     * <li>flush logs - waits for the asynchronous log appenders, up to the flush deadline</li>
+     * </ol>
+     * The time taken by each phase is logged, see getShutdownTimer().
+     * 
      * @throws Exception
      */
-    public synchronized void cleanup() throws Exception {
-        long start, end, total;
+    public void cleanup() throws Exception {
+        synchronized (shutdownLock) {
+            // This prevents cleanup from running more than onces.
+            if (ranCleanup) {
+                return;
+            }
+            
+            try {
+                logger.info("Starting Cleanup at: {}", getTimeStamp());
+                DaemonConfig cfg = config;
+                shutdownTimer.start();
+                
+                stopStopFileWatcher(); // Make sure the stop file watcher is stopped!
+                stopConfigFileWatcher();
+                requestLoopStop();
+                shutdownTimer.mark("stop intake");
+                
+                if (!awaitLoopStop(cfg.getShutdownDrainMillis())) {
+                    logger.warn("Execution Loop did not stop within {} ms, interrupting it",
+                            cfg.getShutdownDrainMillis());
+                    interruptLoopWorkers();
+                    if (!awaitLoopStop(FORCED_STOP_GRACE_MILLIS)) {
+                        logger.error("Execution Loop ignored the interrupt, leaving it behind");
+                    }
+                }
+                shutdownTimer.mark("drain");
+                
+                Exception cleanupFailure = runCleanupHook(cfg.getShutdownCleanupMillis());
+                loopMetrics.unregister();
+                setHeartbeatState(HeartbeatFile.STATE_STOPPED);
+                heartbeatFile = null;
+                shutdownTimer.mark("cleanup");
+                
+                if (!RingBufferAsyncAppender.flushAll(cfg.getShutdownFlushMillis())) {
+                    logger.warn("Log events still buffered after {} ms", cfg.getShutdownFlushMillis());
+                }
+                shutdownTimer.mark("flush logs");
+                
+                // Written by the appenders' own shutdown flush at the latest
+                logger.info("{}", shutdownTimer);
+                
+                if (cleanupFailure != null) {
+                    throw cleanupFailure;
+                }
+            } // End try block
+            catch (Exception e) {
+                /*
+                 * It is in my experience that the Operating System will cleanup anything we have "forgotten" to clean
+                 * up. Therefore I do not want to waste my production support team members time at 3AM in the morning to
+                 * handle "why did a database connection not close" It will close eventually, since it is just a
+                 * socket, and even if it doesn't we'll catch this in other jobs which may fail due to the database
+                 * running out of connections.
+                 * 
+                 * However I usually have these exceptions emailed to our development team for investigation the next
+                 * day. For demo purposes I did not include my Exception/Stacktrace Emailing utility, however I
+                 * encourage you to add your own.
+                 * 
+                 * If you really need the process to exit non-ZERO because of the cleanup failing, set the
+                 * treatCleanupExceptionsAsFatal to true.
+                 */
+                e.printStackTrace();
+                
+                if (treatCleanupExceptionsAsFatal) {
+                    throw e;
+                }
+            } finally {
+                // The phases are bounded, running them again from the shutdown hook would only repeat the waits
+                ranCleanup = true;
+            }
+        }
+    }
+    
+    /**
+     * Runs customProcessCleanup() on its own thread and waits for it up to timeoutMillis, then interrupts it and waits
+     * a little longer. Returns what the hook threw, if anything.
+     */
+    private Exception runCleanupHook(long timeoutMillis) throws InterruptedException {
+        CleanupHookRunner runner = new CleanupHookRunner();
+        Thread t = new Thread(runner, "DaemonCleanup");
+        t.setDaemon(true);
+        t.start();
         
-        // This prevents cleanup from running more than onces.
-        if (ranCleanup) {
-            return;
+        t.join(Math.max(1, timeoutMillis));
+        if (t.isAlive()) {
+            logger.warn("customProcessCleanup() did not finish within {} ms, interrupting it", timeoutMillis);
+            t.interrupt();
+            t.join(FORCED_STOP_GRACE_MILLIS);
+            if (t.isAlive()) {
+                logger.error("customProcessCleanup() ignored the interrupt, leaving it behind");
+            }
         }
         
-        try {
-            logger.info("Starting Cleanup at: " + getTimeStamp());
-            start = System.currentTimeMillis();
-            
-            stopStopFileWatcher(); // Make sure the stop file watcher is stopped!
-            
-            stopProcessingLoop(); // Make sure the processing loop is stopped!
-            
-            customProcessCleanup(); // Hook to the users Process Cleanup Method
-            
-            end = System.currentTimeMillis();
-            total = end - start;
-            
-            logger.debug("Cleanup Completed at: " + getTimeStamp());
-            logger.debug("Total Cleanup Execution Time: " + compactHumanReadableTimeWithMs(total));
-            
-            ranCleanup = true;
-        } // End try block
-        catch (Exception e) {
-            /*
-             * It is in my experience that the Operating System will cleanup anything we have "forgotten" to clean up.
-             * Therefore I do not want to waste my production support team members time at 3AM in the morning to handle
-             * "why did a database connection not close" It will close eventually, since it is just a socket, and even
-             * if it doesn't we'll catch this in other jobs which may fail due to the database running out of
-             * connections.
-             * 
-             * However I usually have these exceptions emailed to our development team for investigation the next day.
-             * For demo purposes I did not include my Exception/Stacktrace Emailing utility, however I encourage you to
-             * add your own.
-             * 
-             * If you really need the process to exit non-ZERO because of the cleanup failing, set the
-             * treatCleanupExceptionsAsFatal to true.
-             */
-            e.printStackTrace();
-            
-            if (treatCleanupExceptionsAsFatal) {
-                throw e;
+        return runner.failure;
+    }
+    
+    private final class CleanupHookRunner implements Runnable {
+        private volatile Exception failure;
+        
+        public void run() {
+            try {
+                customProcessCleanup(); // Hook to the users Process Cleanup Method
+            } catch (Exception e) {
+                failure = e;
             }
         }
     }
@@ -292,7 +733,7 @@ public class Daemon {
             stopFileWarcherLoopStarted = false;
             runStopFileWatcher = true;
             
-            logger.info("Starting Stop File Watcher at: " + getTimeStamp());
+            logger.info("Starting Stop File Watcher at: {}", getTimeStamp());
             
             t = new Thread(stopFileWatcherRunner);
             t.start();
@@ -302,7 +743,7 @@ public class Daemon {
             }
         }
         
-        logger.info("Stop File Watcher Thread Started Running at: " + getTimeStamp());
+        logger.info("Stop File Watcher Thread Started Running at: {}", getTimeStamp());
     }
     
     public void startStopFileWatcherFaked() throws InterruptedException {
@@ -323,15 +764,16 @@ public class Daemon {
                 return;
             }
             
-            logger.info("Requesting Stop File Watcher Stop at: " + getTimeStamp());
+            logger.info("Requesting Stop File Watcher Stop at: {}", getTimeStamp());
             
             runStopFileWatcher = false;
+            closeStopFileWatchService(); // Wake up the watcher if it is blocked on the watch service
             
             while (stopFileWarcherLoopStarted) {
                 stopFileWatcherControlLock.wait();
             }
             
-            logger.info("Stop File Watcher Stop Request Completed at: " + getTimeStamp());
+            logger.info("Stop File Watcher Stop Request Completed at: {}", getTimeStamp());
         }
     }
     
@@ -352,21 +794,30 @@ public class Daemon {
                 return;
             }
             
-            loopStarted = false;
+            loopWorkersStarted = 0;
             runProcessing = true;
             ranCleanup = false;
             
-            logger.info("@@Starting Processing Loop at: " + getTimeStamp());
+            logger.info("@@Starting Processing Loop at: {}", getTimeStamp());
             
-            t = new Thread(executionLoopRunner);
-            t.start();
+            ExecutionLoopWorker[] workers = new ExecutionLoopWorker[loopWorkerCount];
+            for (int i = 0; i < workers.length; i++) {
+                workers[i] = new ExecutionLoopWorker(i, workers.length);
+            }
+            loopWorkers = workers;
+            
+            for (ExecutionLoopWorker worker : workers) {
+                t = new Thread(worker, "ExecutionLoop-" + worker.workerIndex);
+                t.start();
+            }
             
-            while (!loopStarted) {
+            while (loopWorkersStarted < workers.length && runProcessing) {
                 loopControlLock.wait();
             }
         }
+        setHeartbeatState(HeartbeatFile.STATE_RUNNING);
         
-        logger.info("Execution Processing Loop Thread Started Running at: " + getTimeStamp());
+        logger.info("Execution Processing Loop Thread Started Running at: {}", getTimeStamp());
     }
     
     public void startProcessingLoopFaked() throws InterruptedException {
@@ -376,16 +827,18 @@ public class Daemon {
                 return;
             }
             
-            loopStarted = false;
+            loopWorkersStarted = 0;
             runProcessing = true;
             ranCleanup = false;
         }
+        setHeartbeatState(HeartbeatFile.STATE_RUNNING);
     }
     
     /**
      * This method is used to stop or actually "request to stop" the processing loop thread.
      * 
-     * It waits while the processing loop is running.
+     * It waits while the processing loop is running, without a deadline. cleanup() uses requestLoopStop() and
+     * awaitLoopStop() instead.
      * 
      * @throws InterruptedException
      */
@@ -395,15 +848,81 @@ public class Daemon {
                 return;
             }
             
-            logger.info("Requesting Execution Loop Stop at: " + getTimeStamp());
+            requestLoopStop();
             
-            runProcessing = false;
-            
-            while (loopStarted) {
+            while (loopWorkersStarted > 0) {
                 loopControlLock.wait();
             }
+            setHeartbeatState(HeartbeatFile.STATE_STOPPED);
+            
+            logger.info("Execution Loop Stop Request Completed at: {}", getTimeStamp());
+        }
+    }
+    
+    /**
+     * Asks for a restart: the processing loop stops like on requestLoopStop(), and isRestartRequested() tells the caller
+     * of waitWhileExecuting() to clean up and start a new daemon in the same JVM, which keeps its loaded classes and
+     * JIT compiled code.
+     */
+    public void requestRestart() {
+        logger.info("Restart requested at: {}", getTimeStamp());
+        restartRequested = true;
+        requestLoopStop();
+    }
+    
+    public boolean isRestartRequested() {
+        return restartRequested;
+    }
+    
+    /**
+     * Asks the processing loop to stop after the iteration it is in, and returns right away.
+     */
+    public void requestLoopStop() {
+        synchronized (loopControlLock) {
+            if (!runProcessing) {
+                return;
+            }
+            
+            logger.info("Requesting Execution Loop Stop at: {}", getTimeStamp());
             
-            logger.info("Execution Loop Stop Request Completed at: " + getTimeStamp());
+            runProcessing = false;
+            loopControlLock.notifyAll(); // Wake up the sleeping loop and the waitWhileExecuting() callers
+            setHeartbeatState(HeartbeatFile.STATE_STOPPING);
+        }
+    }
+    
+    /**
+     * Waits up to timeoutMillis for the loop workers to exit after requestLoopStop().
+     * 
+     * @return true if no loop worker is running anymore
+     * @throws InterruptedException
+     */
+    public boolean awaitLoopStop(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        
+        synchronized (loopControlLock) {
+            while (loopWorkersStarted > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(loopControlLock, remaining);
+            }
+        }
+        setHeartbeatState(HeartbeatFile.STATE_STOPPED);
+        
+        return true;
+    }
+    
+    /**
+     * Interrupts the loop worker threads, for an iteration which did not finish within the drain deadline.
+     */
+    private void interruptLoopWorkers() {
+        for (ExecutionLoopWorker worker : loopWorkers) {
+            Thread t = worker.thread;
+            if (t != null) {
+                t.interrupt();
+            }
         }
     }
     
@@ -416,59 +935,216 @@ public class Daemon {
      */
     public void waitWhileExecuting() throws InterruptedException {
         synchronized (loopControlLock) {
-            // while (loopStarted) {
+            // while (loopWorkersStarted > 0) {
             while (this.runProcessing) {
-                loopControlLock.wait(1000);
+                loopControlLock.wait();
             }
         }
     }
     
     /**
-     * This is the runnable implementation as an anon inner class which contains the actual execution loop of the
-     * Daemon. This execution loop is what really separates the Daemon Process from the Standalone Process batch
-     * template. While the Standalone Process template was meant for processes which run a task and then exit once
-     * completed. This implementation is method to keep on running for extended periods of time, re-executing the custom
-     * processing logic over and over again after some sleep period.
+     * This is the runnable implementation as an inner class which contains the actual execution loop of the Daemon.
+     * This execution loop is what really separates the Daemon Process from the Standalone Process batch template. While
+     * the Standalone Process template was meant for processes which run a task and then exit once completed. This
+     * implementation is method to keep on running for extended periods of time, re-executing the custom processing
+     * logic over and over again after some sleep period.
+     * 
+     * One instance runs per loop worker thread. Each worker only ever increments its own iteration counter, so the
+     * counters need no locking; readers just sum them up. If any worker exits, the whole processing loop stops.
      */
-    private final Runnable executionLoopRunner = new Runnable() {
+    private final class ExecutionLoopWorker implements Runnable {
+        private final int workerIndex;
+        
+        private final int workerCount;
+        
+        private volatile long iterationCnt;
+        
+        private volatile long overrunCnt;
+        
+        /*
+         * The thread running this worker, interrupted by cleanup() when the drain deadline passed
+         */
+        private volatile Thread thread;
+        
+        /*
+         * The interval of the adaptive loop, before jitter. Only written by the worker thread.
+         */
+        private volatile long adaptiveSleepMillis;
+        
+        private ExecutionLoopWorker(int workerIndex, int workerCount) {
+            this.workerIndex = workerIndex;
+            this.workerCount = workerCount;
+        }
+        
         public void run() {
+            thread = Thread.currentThread();
             try {
                 synchronized (loopControlLock) {
-                    loopStarted = true;
+                    loopWorkersStarted++;
                     loopControlLock.notifyAll();
                 }
                 
                 logger.debug("Executing Loop Thread Running!");
                 
+                // The start of the next tick when running at a fixed rate
+                long nextTick = System.nanoTime();
+                
                 while (runProcessing) {
+                    long period = TimeUnit.MILLISECONDS.toNanos(config.getProcessLoopSleepMillis());
+                    nextTick += period;
+                    
                     // Hook to the User's Custom Execute Processing
                     // Method! - Where the magic happens!
-                    customExecuteProcessing();
+                    long start = System.nanoTime();
+                    long iterationNanos = 0;
+                    long work = WORK_UNKNOWN;
+                    boolean failed = true;
+                    try {
+                        work = customExecuteProcessingWork(workerIndex, workerCount);
+                        failed = false;
+                    } finally {
+                        iterationNanos = System.nanoTime() - start;
+                        loopMetrics.recordIteration(iterationNanos, failed);
+                    }
                     
-                    loopIterationCnt++;
+                    iterationCnt++;
+                    
+                    DaemonConfig cfg = config;
+                    HeartbeatFile hb = heartbeatFile;
+                    if (hb != null) {
+                        // The longest sleep to expect, which is what a watchdog needs to know
+                        long loopSleepMillis = cfg.isAdaptiveLoop() ? cfg.getAdaptiveMaxSleepMillis() : cfg
+                                .getProcessLoopSleepMillis();
+                        hb.beat(getLoopIterationCount(), iterationNanos, loopMetrics.getFailureCount(),
+                                loopSleepMillis);
+                    }
                     
                     // Sleep between execution cycles
-                    try {
-                        for (int i = 1; runProcessing && i <= processLoopSleepSecs; i++) {
-                            Thread.sleep(1000);
-                        }
-                    } catch (Exception e) {
+                    start = System.nanoTime();
+                    if (cfg.isAdaptiveLoop()) {
+                        sleepFrom(start, nextAdaptiveSleepMillis(work, cfg));
+                        nextTick = System.nanoTime();
+                    } else if (fixedRateLoop) {
+                        nextTick = handleOverrun(nextTick, period);
+                        nextTick = sleepPeriodFrom(nextTick - period);
+                    } else {
+                        sleepPeriodFrom(start);
+                        nextTick = System.nanoTime();
                     }
+                    loopMetrics.recordSleep(System.nanoTime() - start);
                 } // End while runProcessing loop
             } // End try block
             catch (Exception e) {
                 e.printStackTrace();
             } finally {
-                logger.debug("!!!!!!!!!!Execution Processing Loop Exit at: " + getTimeStamp());
+                if (logger.isDebugEnabled()) {
+                    logger.debug("!!!!!!!!!!Execution Processing Loop Exit at: {}", getTimeStamp());
+                }
                 
                 synchronized (loopControlLock) {
                     runProcessing = false;
-                    loopStarted = false;
+                    loopWorkersStarted--;
                     loopControlLock.notifyAll();
                 }
             }
         }
-    };
+        
+        /**
+         * Works out the next interval of the adaptive loop from the work the last iteration did, and returns it less a
+         * random jitter, never below the minimum.
+         */
+        private long nextAdaptiveSleepMillis(long work, DaemonConfig cfg) {
+            long min = cfg.getAdaptiveMinSleepMillis();
+            long max = cfg.getAdaptiveMaxSleepMillis();
+            long interval = adaptiveSleepMillis;
+            
+            if (work > 0) {
+                // Backlog, come back as soon as allowed
+                interval = min;
+            } else if (work == 0) {
+                // Idle, back off exponentially
+                interval = interval <= 0 ? min : (interval > max / 2 ? max : interval * 2);
+            } else {
+                interval = cfg.getProcessLoopSleepMillis();
+            }
+            interval = Math.max(min, Math.min(max, interval));
+            adaptiveSleepMillis = interval;
+            
+            long jitter = (long) (interval * ADAPTIVE_JITTER * ThreadLocalRandom.current().nextDouble());
+            return Math.max(min, interval - jitter);
+        }
+        
+        /**
+         * Checks if the iteration which just finished ran past the next tick of a fixed rate loop and, if so, returns
+         * the tick to sleep until according to the loop overrun policy.
+         */
+        private long handleOverrun(long nextTick, long period) {
+            long now = System.nanoTime();
+            long late = now - nextTick;
+            
+            if (late <= 0) {
+                return nextTick;
+            }
+            
+            overrunCnt++;
+            long missedTicks = period > 0 ? late / period + 1 : 0;
+            if (logger.isWarnEnabled()) {
+                logger.warn("Execution Loop iteration overran its period by {} ms, missed ticks = {}, policy = {}",
+                        new Object[] { TimeUnit.NANOSECONDS.toMillis(late), missedTicks, loopOverrunPolicy });
+            }
+            
+            switch (loopOverrunPolicy) {
+            case SKIP:
+                return nextTick + missedTicks * period;
+            case BACK_TO_BACK:
+                return now;
+            case CATCH_UP:
+            default:
+                return nextTick;
+            }
+        }
+    }
+    
+    /**
+     * Parks the execution loop thread on the loopControlLock monitor until one loop period after the given
+     * System.nanoTime() base, or until stopProcessingLoop() signals that the loop should stop, whichever comes first.
+     * Returns the deadline it slept until.
+     * 
+     * An interrupt of the loop thread is treated as a stop request.
+     */
+    private long sleepPeriodFrom(long base) {
+        return sleepFrom(base, -1);
+    }
+    
+    /**
+     * Same as sleepPeriodFrom(), for sleepMillis instead of the loop period when it is not negative.
+     */
+    private long sleepFrom(long base, long sleepMillis) {
+        long deadline = base;
+        
+        synchronized (loopControlLock) {
+            try {
+                while (runProcessing) {
+                    // The period is read again on every wake up, so a new loop interval applies to this sleep already
+                    deadline = base
+                            + TimeUnit.MILLISECONDS.toNanos(sleepMillis < 0 ? config.getProcessLoopSleepMillis()
+                                    : sleepMillis);
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(loopControlLock, remaining);
+                }
+            } catch (InterruptedException e) {
+                logger.info("Execution Loop Thread interrupted, stopping the loop");
+                runProcessing = false;
+                loopControlLock.notifyAll();
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        return deadline;
+    }
     
     /**
      * This is the runnable implementation as an anon inner class which contains the Stop File Watcher loop. A Stop File
@@ -491,22 +1167,24 @@ public class Daemon {
                 
                 f = new File(stopFilePath);
                 
+                if (stopFileWatchServiceEnabled && watchStopFile(f)) {
+                    return;
+                }
+                
                 while (runStopFileWatcher) {
-                    logger.debug("checking Stop File " + stopFilePath);
+                    logger.debug("checking Stop File {}", stopFilePath);
                     
                     // If we find the stop file
                     // stop the processing loop
                     // and exit this thread as well.
                     if (f.exists()) {
-                        logger.debug("@@@@ Stop File: '" + stopFilePath + "'  Found at: " + getTimeStamp());
-                        stopProcessingLoop();
-                        deleteStopRequestFile();
+                        stopByStopFile();
                         break;
                     }
                     
                     // Sleep between file existence checks
                     try {
-                        for (int i = 1; runStopFileWatcher && i <= stopFileSleepSecs; i++) {
+                        for (int i = 1; runStopFileWatcher && i <= config.getStopFileSleepSecs(); i++) {
                             Thread.sleep(1000);
                         }
                     } catch (Exception e) {
@@ -516,6 +1194,8 @@ public class Daemon {
             catch (Exception e) {
                 e.printStackTrace();
             } finally {
+                closeStopFileWatchService();
+                
                 synchronized (stopFileWatcherControlLock) {
                     runStopFileWatcher = false;
                     stopFileWarcherLoopStarted = false;
@@ -525,13 +1205,110 @@ public class Daemon {
         }
     };
     
+    /**
+     * This is the event driven version of the stop file watcher loop. Instead of checking the stop file every few
+     * seconds, it blocks on a WatchService registered on the parent directory of the stop file and only looks at the
+     * file system again when an entry is created in that directory.
+     * 
+     * @return true if the watch loop ran to completion, false if the watch service could not be used and the caller
+     *         should fall back to polling.
+     */
+    private boolean watchStopFile(File f) throws InterruptedException {
+        Path stopFile = f.getAbsoluteFile().toPath();
+        Path stopFileDir = stopFile.getParent();
+        Path stopFileName = stopFile.getFileName();
+        WatchKey key;
+        
+        try {
+            // Registered under the control lock so that stopStopFileWatcher() either sees the watch service and
+            // closes it, or we see that a stop was requested before we started blocking on it.
+            synchronized (stopFileWatcherControlLock) {
+                if (!runStopFileWatcher) {
+                    return true;
+                }
+                stopFileWatchService = stopFileDir.getFileSystem().newWatchService();
+                stopFileDir.register(stopFileWatchService, StandardWatchEventKinds.ENTRY_CREATE);
+            }
+        } catch (IOException e) {
+            logger.warn("Can not watch {}, falling back to polling for the Stop File: {}", stopFileDir, e);
+            closeStopFileWatchService();
+            return false;
+        } catch (UnsupportedOperationException e) {
+            logger.warn("Can not watch {}, falling back to polling for the Stop File: {}", stopFileDir, e);
+            closeStopFileWatchService();
+            return false;
+        }
+        
+        logger.debug("watching Stop File {}", stopFile);
+        
+        // The stop file may have been created before the watch was registered.
+        if (f.exists()) {
+            stopByStopFile();
+            return true;
+        }
+        
+        try {
+            while (runStopFileWatcher) {
+                key = stopFileWatchService.take();
+                
+                boolean found = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW || stopFileName.equals(event.context())) {
+                        found = true;
+                    }
+                }
+                
+                if (found && f.exists()) {
+                    stopByStopFile();
+                    break;
+                }
+                
+                if (!key.reset()) {
+                    // The directory is gone, the watch key can not be used anymore.
+                    logger.warn("Watch key for {} is no longer valid, falling back to polling", stopFileDir);
+                    closeStopFileWatchService();
+                    return false;
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // stopStopFileWatcher() closed the watch service to wake us up.
+            logger.debug("Stop File watch service closed");
+        }
+        
+        return true;
+    }
+    
+    private void stopByStopFile() throws InterruptedException {
+        if (logger.isDebugEnabled()) {
+            logger.debug("@@@@ Stop File: '{}'  Found at: {}", stopFilePath, getTimeStamp());
+        }
+        // Only requested, the main thread wakes up from waitWhileExecuting() and drains the loop in cleanup()
+        requestLoopStop();
+        deleteStopRequestFile();
+    }
+    
+    private void closeStopFileWatchService() {
+        WatchService ws = stopFileWatchService;
+        
+        if (ws != null) {
+            stopFileWatchService = null;
+            try {
+                ws.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+    
     protected void deleteStopRequestFile() {
+        if (stopFilePath == null) {
+            return;
+        }
         File f = new File(stopFilePath);
         
         try {
             if (f.exists()) {
                 f.delete();
-                logger.info("deleted file:" + stopFilePath);
+                logger.info("deleted file:{}", stopFilePath);
             }
         } catch (Exception e) {
         }
@@ -554,7 +1331,11 @@ public class Daemon {
      * 
      */
     public synchronized void addShutdownHook() {
-        Runtime.getRuntime().addShutdownHook(new Thread() {
+        if (shutdownHook != null) {
+            return;
+        }
+        
+        shutdownHook = new Thread() {
             public void run() {
                 try {
                     cleanup();
@@ -562,7 +1343,25 @@ public class Daemon {
                     e.printStackTrace();
                 }
             }
-        });
+        };
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+    
+    /**
+     * Takes back the shutdown hook of addShutdownHook(), for a daemon which was cleaned up and is replaced by a new one
+     * in the same JVM. Does nothing once the JVM is shutting down.
+     */
+    public synchronized void removeShutdownHook() {
+        if (shutdownHook == null) {
+            return;
+        }
+        
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            shutdownHook = null;
+        } catch (IllegalStateException e) {
+            // Shutdown in progress, the hook runs anyway and finds the cleanup done
+        }
     }
     
     /**
@@ -614,6 +1413,13 @@ public class Daemon {
      * when loading millions of records.
      */
     private synchronized void readProperties() {
+        Properties props = appProps;
+        
+        if (props != null) {
+            synchronized (configLock) {
+                applyConfig(DaemonConfig.fromProperties(props, baseConfig));
+            }
+        }
         logger.debug("Add Your Property Reads Here!");
     }
     
@@ -672,11 +1478,120 @@ public class Daemon {
         logger.debug("Add Custom Cleanup Logic Here!");
     }
     
+    /**
+     * Re-reads the configuration of a running daemon, on request of an operator (see DaemonControlServer). A key which
+     * was removed from the file goes back to its value set in code, or to its default.
+     * 
+     * @throws Exception
+     */
+    public void reload() throws Exception {
+        if (logger.isInfoEnabled()) {
+            logger.info("Reload requested at: {}", getTimeStamp());
+        }
+        
+        String path = appPropsPath;
+        if (path != null) {
+            // Read and validate before anything is swapped, a broken file leaves the running configuration alone
+            Properties props = readPropertiesFile(path);
+            DaemonConfig newConfig;
+            synchronized (configLock) {
+                newConfig = DaemonConfig.fromProperties(props, baseConfig);
+                appProps = props;
+                applyConfig(newConfig);
+            }
+            logger.info("Reloaded {}: {}", path, newConfig);
+        }
+        
+        customProcessReload();
+    }
+    
+    /**
+     * Starts watching the file given to loadProperties(), and calls reload() whenever it changed. A reload which fails,
+     * for example on an invalid value, is logged and the daemon keeps its configuration.
+     */
+    public void startConfigFileWatcher() {
+        synchronized (configFileWatcherLock) {
+            if (appPropsPath == null) {
+                throw new IllegalStateException("No properties file loaded");
+            }
+            if (configFileWatcher != null) {
+                return;
+            }
+            
+            configFileWatcher = new FileChangeWatcher(new File(appPropsPath), 200, new Runnable() {
+                public void run() {
+                    try {
+                        reload();
+                    } catch (Exception e) {
+                        logger.error("Reload of " + appPropsPath + " failed, keeping the current configuration", e);
+                    }
+                }
+            });
+            configFileWatcher.start();
+        }
+    }
+    
+    public void stopConfigFileWatcher() throws InterruptedException {
+        synchronized (configFileWatcherLock) {
+            if (configFileWatcher != null) {
+                configFileWatcher.stop();
+                configFileWatcher = null;
+            }
+        }
+    }
+    
+    /**
+     * This is where you would re-read whatever customProcessInit() read from the configuration, without stopping the
+     * processing loop. If it throws, the daemon keeps running on the configuration it had.
+     * 
+     * @throws Exception
+     */
+    protected synchronized void customProcessReload() throws Exception {
+        logger.debug("Add Custom Reload Logic Here!");
+    }
+    
+    /**
+     * This is the hook called by every execution loop worker when it matters how much work an iteration did. It returns
+     * the number of items (records, files, messages...) the iteration processed, 0 if it found nothing to do, or
+     * WORK_UNKNOWN.
+     * 
+     * With the adaptive loop interval switched on (see setAdaptiveLoopSleepMillis()) the loop comes back after the
+     * minimum sleep while there is work, and backs off exponentially up to the maximum sleep while there is none. An
+     * unknown amount of work sleeps the normal loop period, within the same bounds.
+     * 
+     * The default implementation calls customExecuteProcessing(int, int) and returns WORK_UNKNOWN.
+     * 
+     * @param workerIndex the index of the calling worker, from 0 to workerCount - 1
+     * @param workerCount the number of workers running the processing loop
+     * @throws Exception
+     */
+    protected long customExecuteProcessingWork(int workerIndex, int workerCount) throws Exception {
+        customExecuteProcessing(workerIndex, workerCount);
+        return WORK_UNKNOWN;
+    }
+    
+    /**
+     * This is the hook called by every execution loop worker. Override it to have the workers process their own
+     * partition of the work in parallel, for example every item whose hash modulo workerCount equals workerIndex.
+     * 
+     * The default implementation calls the single customExecuteProcessing() method, which is synchronized, so with more
+     * than one worker they simply take turns.
+     * 
+     * @param workerIndex the index of the calling worker, from 0 to workerCount - 1
+     * @param workerCount the number of workers running the processing loop
+     * @throws Exception
+     */
+    protected void customExecuteProcessing(int workerIndex, int workerCount) throws Exception {
+        customExecuteProcessing();
+    }
+    
     protected synchronized void customExecuteProcessing() throws Exception {
-        logger.info("Loop Iteration Count = " + loopIterationCnt + " - Add Custom Processing Logic Here!");
+        if (logger.isInfoEnabled()) {
+            logger.info("Loop Iteration Count = {} - Add Custom Processing Logic Here!", getLoopIterationCount());
+        }
         
         // Uncomment for testing if you want to see the behavior...
-        // if (loopIterationCnt == 5) {
+        // if (getLoopIterationCount() == 5) {
         // throw new Exception(
         // "Testing what happens if an exception gets thrown here!");
         // }
@@ -701,9 +1616,33 @@ public class Daemon {
      * All depends on how you need to presented in your logs.
      */
     public static String compactHumanReadableTimeWithMs(long milliSeconds) {
+        return compactHumanReadableTimeWithMs(milliSeconds, new StringBuilder(64)).toString();
+    }
+    
+    /**
+     * Same as compactHumanReadableTimeWithMs(long), but appends the sentence to the given StringBuilder instead of
+     * creating a new String, so a caller which reuses its builder does not allocate anything.
+     * 
+     * @return sb
+     */
+    public static StringBuilder compactHumanReadableTimeWithMs(long milliSeconds, StringBuilder sb) {
+        try {
+            compactHumanReadableTimeWithMs(milliSeconds, (Appendable) sb);
+        } catch (IOException e) {
+            // A StringBuilder never throws an IOException
+            throw new IllegalStateException(e);
+        }
+        return sb;
+    }
+    
+    /**
+     * Same as compactHumanReadableTimeWithMs(long), but appends the sentence to the given Appendable (a Writer for
+     * example). Numbers are written digit by digit, so no intermediate Strings are created.
+     */
+    public static void compactHumanReadableTimeWithMs(long milliSeconds, Appendable out) throws IOException {
         long days, hours, inpSecs, leftOverMs;
         int minutes, seconds;
-        StringBuffer sb = new StringBuffer();
+        boolean started = false;
         
         inpSecs = milliSeconds / 1000; // Convert Milliseconds into Seconds
         days = inpSecs / 86400;
@@ -713,45 +1652,71 @@ public class Daemon {
         leftOverMs = milliSeconds - (inpSecs * 1000);
         
         if (days > 0) {
-            sb.append(days);
-            sb.append((days == 1 ? " Day" : " Days"));
+            appendDigits(out, days);
+            out.append((days == 1 ? " Day" : " Days"));
+            started = true;
         }
         
-        if (sb.length() > 0) {
-            sb.append(", ");
+        if (started) {
+            out.append(", ");
         }
         
-        if (hours > 0 || sb.length() > 0) {
-            sb.append(hours);
-            sb.append((hours == 1 ? " Hour" : " Hours"));
+        if (hours > 0 || started) {
+            appendDigits(out, hours);
+            out.append((hours == 1 ? " Hour" : " Hours"));
+            started = true;
         }
         
-        if (sb.length() > 0) {
-            sb.append(", ");
+        if (started) {
+            out.append(", ");
         }
         
-        if (minutes > 0 || sb.length() > 0) {
-            sb.append(minutes);
-            sb.append((minutes == 1 ? " Minute" : " Minutes"));
+        if (minutes > 0 || started) {
+            appendDigits(out, minutes);
+            out.append((minutes == 1 ? " Minute" : " Minutes"));
+            started = true;
         }
         
-        if (sb.length() > 0) {
-            sb.append(", ");
+        if (started) {
+            out.append(", ");
         }
         
-        if (seconds > 0 || sb.length() > 0) {
-            sb.append(seconds);
-            sb.append((seconds == 1 ? " Second" : " Seconds"));
+        if (seconds > 0 || started) {
+            appendDigits(out, seconds);
+            out.append((seconds == 1 ? " Second" : " Seconds"));
+            started = true;
         }
         
-        if (sb.length() > 0) {
-            sb.append(", ");
+        if (started) {
+            out.append(", ");
         }
         
-        sb.append(leftOverMs);
-        sb.append((seconds == 1 ? " Millisecond" : " Milliseconds"));
+        appendDigits(out, leftOverMs);
+        out.append((seconds == 1 ? " Millisecond" : " Milliseconds"));
+    }
+    
+    /**
+     * Appends the decimal digits of a number without going through Long.toString().
+     */
+    private static void appendDigits(Appendable out, long value) throws IOException {
+        if (value < 0) {
+            out.append('-');
+            if (value == Long.MIN_VALUE) {
+                out.append("9223372036854775808");
+                return;
+            }
+            value = -value;
+        }
         
-        return sb.toString();
+        long divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        
+        while (divisor > 0) {
+            out.append((char) ('0' + (value / divisor) % 10));
+            divisor /= 10;
+        }
     }
     
     /**
@@ -798,10 +1763,52 @@ public class Daemon {
     /**
      * Simply returns a timestamp as a String.
      * 
+     * The formatted value is cached for the current second, so calling this for every log line does not create a new
+     * Date and String each time. With setIsoTimeStamps(true) the timestamp is ISO-8601 with milliseconds instead of the
+     * java.util.Date.toString() format.
+     * 
      * @return
      */
     public static String getTimeStamp() {
-        return new java.util.Date().toString();
+        if (isoTimeStamps) {
+            return appendTimeStamp(new StringBuilder(32)).toString();
+        }
+        return TimeStampCache.dateString(System.currentTimeMillis());
+    }
+    
+    /**
+     * Appends the current timestamp, in the same format as getTimeStamp(), to the given StringBuilder.
+     * 
+     * @return sb
+     */
+    public static StringBuilder appendTimeStamp(StringBuilder sb) {
+        long now = System.currentTimeMillis();
+        
+        if (isoTimeStamps) {
+            return TimeStampCache.appendIso(now, sb);
+        }
+        return sb.append(TimeStampCache.dateString(now));
+    }
+    
+    /**
+     * Appends the current time as an ISO-8601 timestamp with milliseconds and zone offset, for example
+     * 2012-08-19T14:03:09.042+09:00, to the given StringBuilder. Only the milliseconds are formatted on each call, the
+     * rest is cached for the current second.
+     * 
+     * @return sb
+     */
+    public static StringBuilder appendIsoTimeStamp(StringBuilder sb) {
+        return TimeStampCache.appendIso(System.currentTimeMillis(), sb);
+    }
+    
+    /**
+     * Switches getTimeStamp() and appendTimeStamp() between the java.util.Date.toString() format (the default) and
+     * ISO-8601 with milliseconds.
+     * 
+     * @param isoTimeStamps
+     */
+    public static void setIsoTimeStamps(boolean isoTimeStamps) {
+        Daemon.isoTimeStamps = isoTimeStamps;
     }
     
 }
\ No newline at end of file
@@ -0,0 +1,227 @@
+package com.nexr;
+
+import java.util.Properties;
+
+/**
+ * An immutable snapshot of the configuration of a {@link Daemon}: the loop and stop file watcher intervals, the bounds
+ * of the adaptive loop interval, the deadlines of the shutdown phases, and the application properties they were read
+ * from.
+ * 
+ * The Daemon swaps whole snapshots, so a loop iteration which read the snapshot once sees either the old or the new
+ * configuration, never a mix. Changing a value means building a new snapshot with one of the with...() methods.
+ */
+public final class DaemonConfig {
+    
+    /*
+     * Property keys of the intervals. Properties which are not set keep the value of the previous snapshot.
+     */
+    public static final String PROCESS_LOOP_SLEEP_MILLIS = "daemon.processLoopSleepMillis";
+    
+    public static final String STOP_FILE_WATCHER_SLEEP_SECONDS = "daemon.stopFileWatcherSleepSeconds";
+    
+    /*
+     * Bounds of the adaptive loop interval, see Daemon.customExecuteProcessingWork(). A maximum above 0 switches the
+     * adaptive mode on.
+     */
+    public static final String ADAPTIVE_MIN_SLEEP_MILLIS = "daemon.adaptiveLoop.minSleepMillis";
+    
+    public static final String ADAPTIVE_MAX_SLEEP_MILLIS = "daemon.adaptiveLoop.maxSleepMillis";
+    
+    /*
+     * Deadlines of the shutdown phases, see Daemon.cleanup()
+     */
+    public static final String SHUTDOWN_DRAIN_MILLIS = "daemon.shutdown.drainMillis";
+    
+    public static final String SHUTDOWN_CLEANUP_MILLIS = "daemon.shutdown.cleanupMillis";
+    
+    public static final String SHUTDOWN_FLUSH_MILLIS = "daemon.shutdown.flushMillis";
+    
+    static final DaemonConfig DEFAULTS = new DaemonConfig(0, 0, 100, 0, 10000, 10000, 2000, new Properties());
+    
+    private final long processLoopSleepMillis;
+    
+    private final int stopFileSleepSecs;
+    
+    private final long adaptiveMinSleepMillis;
+    
+    private final long adaptiveMaxSleepMillis;
+    
+    private final long shutdownDrainMillis;
+    
+    private final long shutdownCleanupMillis;
+    
+    private final long shutdownFlushMillis;
+    
+    /*
+     * A private copy, never handed out
+     */
+    private final Properties properties;
+    
+    private DaemonConfig(long processLoopSleepMillis, int stopFileSleepSecs, long adaptiveMinSleepMillis,
+            long adaptiveMaxSleepMillis, long shutdownDrainMillis, long shutdownCleanupMillis, long shutdownFlushMillis,
+            Properties properties) {
+        if (adaptiveMaxSleepMillis > 0 && adaptiveMinSleepMillis > adaptiveMaxSleepMillis) {
+            throw new IllegalArgumentException(ADAPTIVE_MIN_SLEEP_MILLIS + " " + adaptiveMinSleepMillis
+                    + " is above " + ADAPTIVE_MAX_SLEEP_MILLIS + " " + adaptiveMaxSleepMillis);
+        }
+        this.processLoopSleepMillis = processLoopSleepMillis;
+        this.stopFileSleepSecs = stopFileSleepSecs;
+        this.adaptiveMinSleepMillis = adaptiveMinSleepMillis;
+        this.adaptiveMaxSleepMillis = adaptiveMaxSleepMillis;
+        this.shutdownDrainMillis = shutdownDrainMillis;
+        this.shutdownCleanupMillis = shutdownCleanupMillis;
+        this.shutdownFlushMillis = shutdownFlushMillis;
+        this.properties = properties;
+    }
+    
+    /**
+     * Reads and validates the intervals and deadlines from props, and takes a copy of props. Throws
+     * IllegalArgumentException naming the first invalid property.
+     * 
+     * @param current the snapshot whose intervals and deadlines are taken when props does not set them. Daemon passes
+     *        the configuration set in code, so a key removed from the file does not keep its last value.
+     */
+    public static DaemonConfig fromProperties(Properties props, DaemonConfig current) {
+        Properties copy = new Properties();
+        for (String key : props.stringPropertyNames()) {
+            copy.setProperty(key, props.getProperty(key));
+        }
+        
+        long loopSleepMillis = parse(copy, PROCESS_LOOP_SLEEP_MILLIS, current.processLoopSleepMillis);
+        long stopFileSleep = parse(copy, STOP_FILE_WATCHER_SLEEP_SECONDS, current.stopFileSleepSecs);
+        if (stopFileSleep > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(STOP_FILE_WATCHER_SLEEP_SECONDS + " is too large: " + stopFileSleep);
+        }
+        long minSleepMillis = parse(copy, ADAPTIVE_MIN_SLEEP_MILLIS, current.adaptiveMinSleepMillis);
+        long maxSleepMillis = parse(copy, ADAPTIVE_MAX_SLEEP_MILLIS, current.adaptiveMaxSleepMillis);
+        long drainMillis = parse(copy, SHUTDOWN_DRAIN_MILLIS, current.shutdownDrainMillis);
+        long cleanupMillis = parse(copy, SHUTDOWN_CLEANUP_MILLIS, current.shutdownCleanupMillis);
+        long flushMillis = parse(copy, SHUTDOWN_FLUSH_MILLIS, current.shutdownFlushMillis);
+        
+        return new DaemonConfig(loopSleepMillis, (int) stopFileSleep, minSleepMillis, maxSleepMillis, drainMillis,
+                cleanupMillis, flushMillis, copy);
+    }
+    
+    private static long parse(Properties props, String key, long defaultValue) {
+        String value = props.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        
+        long parsed;
+        try {
+            parsed = Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(key + " is not a number: " + value, e);
+        }
+        if (parsed < 0) {
+            throw new IllegalArgumentException(key + " must not be negative: " + value);
+        }
+        return parsed;
+    }
+    
+    public DaemonConfig withProcessLoopSleepMillis(long processLoopSleepMillis) {
+        if (processLoopSleepMillis < 0) {
+            throw new IllegalArgumentException("process loop sleep must not be negative: " + processLoopSleepMillis);
+        }
+        return new DaemonConfig(processLoopSleepMillis, stopFileSleepSecs, adaptiveMinSleepMillis,
+                adaptiveMaxSleepMillis, shutdownDrainMillis, shutdownCleanupMillis, shutdownFlushMillis, properties);
+    }
+    
+    public DaemonConfig withStopFileSleepSecs(int stopFileSleepSecs) {
+        if (stopFileSleepSecs < 0) {
+            throw new IllegalArgumentException("stop file check interval must not be negative: " + stopFileSleepSecs);
+        }
+        return new DaemonConfig(processLoopSleepMillis, stopFileSleepSecs, adaptiveMinSleepMillis,
+                adaptiveMaxSleepMillis, shutdownDrainMillis, shutdownCleanupMillis, shutdownFlushMillis, properties);
+    }
+    
+    /**
+     * @param maxSleepMillis 0 switches the adaptive loop interval off
+     */
+    public DaemonConfig withAdaptiveSleepBounds(long minSleepMillis, long maxSleepMillis) {
+        if (minSleepMillis < 0 || maxSleepMillis < 0) {
+            throw new IllegalArgumentException("adaptive loop interval bounds must not be negative");
+        }
+        return new DaemonConfig(processLoopSleepMillis, stopFileSleepSecs, minSleepMillis, maxSleepMillis,
+                shutdownDrainMillis, shutdownCleanupMillis, shutdownFlushMillis, properties);
+    }
+    
+    public DaemonConfig withShutdownDeadlines(long drainMillis, long cleanupMillis, long flushMillis) {
+        if (drainMillis < 0 || cleanupMillis < 0 || flushMillis < 0) {
+            throw new IllegalArgumentException("shutdown deadlines must not be negative");
+        }
+        return new DaemonConfig(processLoopSleepMillis, stopFileSleepSecs, adaptiveMinSleepMillis,
+                adaptiveMaxSleepMillis, drainMillis, cleanupMillis, flushMillis, properties);
+    }
+    
+    public long getProcessLoopSleepMillis() {
+        return processLoopSleepMillis;
+    }
+    
+    public int getStopFileSleepSecs() {
+        return stopFileSleepSecs;
+    }
+    
+    /**
+     * true if the loop adapts its interval to the work it finds, between the adaptive sleep bounds.
+     */
+    public boolean isAdaptiveLoop() {
+        return adaptiveMaxSleepMillis > 0;
+    }
+    
+    public long getAdaptiveMinSleepMillis() {
+        return adaptiveMinSleepMillis;
+    }
+    
+    public long getAdaptiveMaxSleepMillis() {
+        return adaptiveMaxSleepMillis;
+    }
+    
+    /**
+     * How long the shutdown waits for the loop workers to finish their iteration before it interrupts them.
+     */
+    public long getShutdownDrainMillis() {
+        return shutdownDrainMillis;
+    }
+    
+    /**
+     * How long the shutdown waits for customProcessCleanup() before it interrupts it and moves on.
+     */
+    public long getShutdownCleanupMillis() {
+        return shutdownCleanupMillis;
+    }
+    
+    /**
+     * How long the shutdown waits for buffered log events to be written.
+     */
+    public long getShutdownFlushMillis() {
+        return shutdownFlushMillis;
+    }
+    
+    public String getProperty(String key) {
+        return properties.getProperty(key);
+    }
+    
+    public String getProperty(String key, String defaultValue) {
+        return properties.getProperty(key, defaultValue);
+    }
+    
+    /**
+     * Returns the property as a number, defaultValue if it is not set. Throws IllegalArgumentException if it is not a
+     * number or negative, like for the intervals.
+     */
+    public long getLongProperty(String key, long defaultValue) {
+        return parse(properties, key, defaultValue);
+    }
+    
+    @Override
+    public String toString() {
+        String adaptive = isAdaptiveLoop() ? "adaptive loop sleep " + adaptiveMinSleepMillis + "-"
+                + adaptiveMaxSleepMillis + " ms, " : "";
+        return "loop sleep " + processLoopSleepMillis + " ms, stop file check every " + stopFileSleepSecs + " s, "
+                + adaptive + "shutdown deadlines drain " + shutdownDrainMillis + " ms, cleanup "
+                + shutdownCleanupMillis + " ms, flush " + shutdownFlushMillis + " ms, " + properties.size()
+                + " properties";
+    }
+}
@@ -0,0 +1,58 @@
+package com.nexr;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+
+/**
+ * Sends a command to the {@link DaemonControlServer} of a running daemon, found through its control file.
+ */
+public final class DaemonControlClient {
+    
+    private DaemonControlClient() {
+    }
+    
+    /**
+     * Sends the command and returns the response line, which starts with "OK" or "ERR".
+     * 
+     * @throws IOException if there is no control file, or no daemon answering on its port within timeoutMillis
+     */
+    public static String send(File controlFile, String command, int timeoutMillis) throws IOException {
+        String[] control = new String(Files.readAllBytes(controlFile.toPath()), DaemonControlServer.ASCII).trim()
+                .split("\\s+");
+        if (control.length != 2) {
+            throw new IOException("Malformed control file " + controlFile);
+        }
+        int port;
+        try {
+            port = Integer.parseInt(control[0]);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed control file " + controlFile, e);
+        }
+        
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), timeoutMillis);
+            socket.setSoTimeout(timeoutMillis);
+            
+            OutputStream out = socket.getOutputStream();
+            out.write((control[1] + " " + command + "\n").getBytes(DaemonControlServer.ASCII));
+            out.flush();
+            
+            String response = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                    DaemonControlServer.ASCII)).readLine();
+            if (response == null) {
+                throw new IOException("No response to " + command);
+            }
+            return response;
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package com.nexr;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The control endpoint of a running {@link Daemon}: a loopback-only TCP socket served by a single selector thread.
+ * 
+ * A client sends one line, "&lt;token&gt; &lt;command&gt;", and gets one line back, "OK ..." or "ERR ...", after which the
+ * server closes the connection. The commands are:
+ * <ul>
+ * <li>status - the processing loop state, the loop iteration count and the JVM uptime</li>
+ * <li>stop - requests the stop of the processing loop, like the stop file does</li>
+ * <li>reload - calls {@link Daemon#reload()}</li>
+ * <li>restart - calls {@link Daemon#requestRestart()}, the daemon is rebuilt in the same JVM</li>
+ * </ul>
+ * 
+ * The port and the token are written to the control file, readable by the owner only where the file system supports
+ * POSIX permissions. The token stands in for the file permissions of a Unix domain socket, which Java 7 does not have:
+ * only who can read the control file can control the daemon. See {@link DaemonControlClient} for the client side.
+ */
+public class DaemonControlServer {
+    
+    private static final Logger logger = LoggerFactory.getLogger(DaemonControlServer.class);
+    
+    static final Charset ASCII = Charset.forName("US-ASCII");
+    
+    private static final int MAX_REQUEST_BYTES = 256;
+    
+    /*
+     * Connections which did not send their request within this time are closed
+     */
+    private static final long REQUEST_TIMEOUT_MILLIS = 5000;
+    
+    private final Daemon daemon;
+    
+    private final File controlFile;
+    
+    private final int requestedPort;
+    
+    private final String token;
+    
+    private ServerSocketChannel server;
+    
+    private Selector selector;
+    
+    private Thread thread;
+    
+    private volatile boolean running = false;
+    
+    /**
+     * @param port the loopback port to listen on, 0 for any free port
+     */
+    public DaemonControlServer(Daemon daemon, File controlFile, int port) {
+        this.daemon = daemon;
+        this.controlFile = controlFile;
+        this.requestedPort = port;
+        
+        byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder sb = new StringBuilder(32);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        this.token = sb.toString();
+    }
+    
+    public synchronized void start() throws IOException {
+        if (thread != null) {
+            return;
+        }
+        
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        try {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), requestedPort));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            writeControlFile();
+        } catch (IOException e) {
+            server.close();
+            selector.close();
+            throw e;
+        }
+        
+        running = true;
+        thread = new Thread(new Runnable() {
+            public void run() {
+                serve();
+            }
+        }, "DaemonControl");
+        thread.setDaemon(true);
+        thread.start();
+        logger.info("Control endpoint listening on port {}, see {}", getPort(), controlFile);
+    }
+    
+    public synchronized int getPort() throws IOException {
+        return ((InetSocketAddress) server.getLocalAddress()).getPort();
+    }
+    
+    /**
+     * Stops serving and deletes the control file. Waits at most a second for the selector thread.
+     */
+    public synchronized void close() throws InterruptedException {
+        if (thread == null) {
+            return;
+        }
+        
+        running = false;
+        selector.wakeup();
+        if (thread != Thread.currentThread()) {
+            thread.join(1000);
+        }
+        thread = null;
+        controlFile.delete();
+    }
+    
+    /*
+     * The temporary file is created readable by the owner only before the token goes in, and CREATE_NEW refuses a file
+     * or symlink someone else put in its place
+     */
+    private void writeControlFile() throws IOException {
+        Path tmp = new File(controlFile.getPath() + ".tmp").toPath();
+        // A symlink is deleted itself, not its target
+        Files.deleteIfExists(tmp);
+        
+        Set<StandardOpenOption> options = EnumSet.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        SeekableByteChannel channel;
+        try {
+            channel = Files.newByteChannel(tmp, options,
+                    PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            logger.warn("{} can not be made readable by its owner only", controlFile);
+            channel = Files.newByteChannel(tmp, options);
+        }
+        try {
+            ByteBuffer content = ByteBuffer.wrap((getPort() + " " + token + "\n").getBytes(ASCII));
+            while (content.hasRemaining()) {
+                channel.write(content);
+            }
+        } finally {
+            channel.close();
+        }
+        Files.move(tmp, controlFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    private void serve() {
+        try {
+            while (running) {
+                selector.select(1000);
+                
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else if (key.isReadable()) {
+                            read(key);
+                        } else if (key.isWritable()) {
+                            write(key);
+                        }
+                    } catch (IOException e) {
+                        logger.debug("Control connection failed: {}", e.toString());
+                        closeConnection(key);
+                    }
+                }
+                
+                closeExpiredConnections();
+            }
+        } catch (IOException e) {
+            logger.error("Control endpoint failed", e);
+        } finally {
+            running = false;
+            for (SelectionKey key : selector.keys()) {
+                closeConnection(key);
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+    
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel != null) {
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, new Connection());
+        }
+    }
+    
+    private void read(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        SocketChannel channel = (SocketChannel) key.channel();
+        
+        if (channel.read(connection.in) < 0) {
+            closeConnection(key);
+            return;
+        }
+        
+        String request = connection.requestLine();
+        if (request == null) {
+            if (!connection.in.hasRemaining()) {
+                respond(key, "ERR request too long");
+            }
+            return;
+        }
+        respond(key, handle(request));
+    }
+    
+    private void respond(SelectionKey key, String response) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        connection.out = ByteBuffer.wrap((response + "\n").getBytes(ASCII));
+        key.interestOps(SelectionKey.OP_WRITE);
+        write(key);
+    }
+    
+    private void write(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        ((SocketChannel) key.channel()).write(connection.out);
+        if (!connection.out.hasRemaining()) {
+            closeConnection(key);
+        }
+    }
+    
+    private void closeExpiredConnections() {
+        long now = System.currentTimeMillis();
+        for (SelectionKey key : selector.keys()) {
+            Object attachment = key.attachment();
+            if (attachment != null && now - ((Connection) attachment).acceptedAt > REQUEST_TIMEOUT_MILLIS) {
+                closeConnection(key);
+            }
+        }
+    }
+    
+    private static void closeConnection(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+        }
+    }
+    
+    /**
+     * Runs a request and returns the response line.
+     */
+    String handle(String request) {
+        int space = request.indexOf(' ');
+        if (space < 0 || !MessageDigest.isEqual(token.getBytes(ASCII), request.substring(0, space).getBytes(ASCII))) {
+            logger.warn("Rejected control request with a wrong token");
+            return "ERR bad token";
+        }
+        
+        String command = request.substring(space + 1).trim();
+        if (logger.isInfoEnabled()) {
+            logger.info("Control command: {}", command);
+        }
+        if ("status".equals(command)) {
+            return "OK state=" + (daemon.isProcessingLoopRunning() ? "running" : "stopped") + " iterations="
+                    + daemon.getLoopIterationCount() + " uptimeMillis="
+                    + ManagementFactory.getRuntimeMXBean().getUptime();
+        } else if ("stop".equals(command)) {
+            // The main thread of the daemon wakes up and runs the bounded cleanup
+            daemon.requestLoopStop();
+            return "OK stopping";
+        } else if ("restart".equals(command)) {
+            daemon.requestRestart();
+            return "OK restarting";
+        } else if ("reload".equals(command)) {
+            try {
+                daemon.reload();
+                return "OK reloaded";
+            } catch (Exception e) {
+                logger.error("Reload failed", e);
+                return "ERR reload failed: " + e;
+            }
+        }
+        return "ERR unknown command: " + command;
+    }
+    
+    private static final class Connection {
+        
+        final long acceptedAt = System.currentTimeMillis();
+        
+        final ByteBuffer in = ByteBuffer.allocate(MAX_REQUEST_BYTES);
+        
+        ByteBuffer out;
+        
+        /**
+         * The request without its line end, or null while it is not complete.
+         */
+        String requestLine() {
+            for (int i = 0; i < in.position(); i++) {
+                if (in.get(i) == '\n') {
+                    return new String(in.array(), 0, i, ASCII).trim();
+                }
+            }
+            return null;
+        }
+    }
+}
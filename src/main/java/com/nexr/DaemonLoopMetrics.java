@@ -0,0 +1,137 @@
+package com.nexr;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Metrics of a {@link Daemon} execution loop: an iteration latency histogram, failure counts, and the time the loop
+ * workers spent working versus sleeping. Iteration and overrun counts are read from the Daemon itself.
+ * 
+ * The metrics can be published on the platform MBeanServer with {@link #register(String)}.
+ */
+public class DaemonLoopMetrics implements DaemonLoopMetricsMBean {
+    
+    private static final Logger logger = LoggerFactory.getLogger(DaemonLoopMetrics.class);
+    
+    private final Daemon daemon;
+    
+    private final LatencyHistogram iterationLatency = new LatencyHistogram();
+    
+    private final AtomicLong failureCnt = new AtomicLong();
+    
+    private final AtomicLong busyNanos = new AtomicLong();
+    
+    private final AtomicLong sleepNanos = new AtomicLong();
+    
+    private ObjectName objectName;
+    
+    public DaemonLoopMetrics(Daemon daemon) {
+        this.daemon = daemon;
+    }
+    
+    /**
+     * Called by the loop workers after each call to the processing hook, successful or not.
+     */
+    void recordIteration(long nanos, boolean failed) {
+        iterationLatency.recordNanos(nanos);
+        busyNanos.addAndGet(nanos);
+        if (failed) {
+            failureCnt.incrementAndGet();
+        }
+    }
+    
+    /**
+     * Called by the loop workers after each sleep between two iterations.
+     */
+    void recordSleep(long nanos) {
+        sleepNanos.addAndGet(nanos);
+    }
+    
+    public LatencyHistogram getIterationLatency() {
+        return iterationLatency;
+    }
+    
+    /**
+     * Registers these metrics on the platform MBeanServer as com.nexr:type=Daemon,name=<name>. Registering twice is a
+     * no-op.
+     */
+    public synchronized void register(String name) throws JMException {
+        if (objectName != null) {
+            return;
+        }
+        
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName on = new ObjectName("com.nexr:type=Daemon,name=" + ObjectName.quote(name));
+        
+        if (server.isRegistered(on)) {
+            server.unregisterMBean(on);
+        }
+        server.registerMBean(this, on);
+        objectName = on;
+        logger.info("registered loop metrics MBean {}", on);
+    }
+    
+    /**
+     * Removes these metrics from the platform MBeanServer, if they were registered.
+     */
+    public synchronized void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            logger.warn("could not unregister {}: {}", objectName, e);
+        }
+        objectName = null;
+    }
+    
+    public long getIterationCount() {
+        return daemon.getLoopIterationCount();
+    }
+    
+    public long getFailureCount() {
+        return failureCnt.get();
+    }
+    
+    public long getOverrunCount() {
+        return daemon.getLoopOverrunCount();
+    }
+    
+    public long getBusyTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(busyNanos.get());
+    }
+    
+    public long getSleepTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(sleepNanos.get());
+    }
+    
+    public long getIterationLatencyP50Micros() {
+        return iterationLatency.getPercentileMicros(50);
+    }
+    
+    public long getIterationLatencyP99Micros() {
+        return iterationLatency.getPercentileMicros(99);
+    }
+    
+    public long getIterationLatencyMaxMicros() {
+        return iterationLatency.getMaxMicros();
+    }
+    
+    public long getIterationLatencyMeanMicros() {
+        return iterationLatency.getMeanMicros();
+    }
+    
+    public void resetIterationLatency() {
+        iterationLatency.reset();
+    }
+}
@@ -0,0 +1,32 @@
+package com.nexr;
+
+/**
+ * JMX view of the Daemon execution loop metrics, see {@link DaemonLoopMetrics}.
+ * 
+ * Latencies are iteration latencies of customExecuteProcessing(), in microseconds.
+ */
+public interface DaemonLoopMetricsMBean {
+    
+    long getIterationCount();
+    
+    long getFailureCount();
+    
+    long getOverrunCount();
+    
+    long getBusyTimeMillis();
+    
+    long getSleepTimeMillis();
+    
+    long getIterationLatencyP50Micros();
+    
+    long getIterationLatencyP99Micros();
+    
+    long getIterationLatencyMaxMicros();
+    
+    long getIterationLatencyMeanMicros();
+    
+    /**
+     * Clears the latency histogram, so that the percentiles only cover the iterations from now on.
+     */
+    void resetIterationLatency();
+}
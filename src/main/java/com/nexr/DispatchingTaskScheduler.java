@@ -0,0 +1,204 @@
+package com.nexr;
+
+import java.util.Date;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.Trigger;
+import org.springframework.scheduling.support.TaskUtils;
+
+/**
+ * A TaskScheduler which only uses its trigger scheduler to decide <em>when</em> a task runs, and runs the task body
+ * itself on a separate executor.
+ * 
+ * With the plain &lt;task:scheduler pool-size="10"/&gt; at most 10 scheduled tasks can run at once, and a task blocked
+ * on I/O holds one of the 10 threads. Here the trigger scheduler can stay at one or two threads since it never runs a
+ * task body, and the executor can be an elastic pool which grows with the number of blocked tasks. See the "dispatch"
+ * profile in spring/task-context.xml.
+ * 
+ * The usual scheduling semantics are kept: a fixed rate task never overlaps itself (a tick which arrives while the
+ * previous run is still going is skipped), and a fixed delay task is only re-armed once its previous run completed.
+ * 
+ * The executor has to reject a task it has no thread for instead of running it on the calling thread, which would be
+ * the trigger thread. A rejected run is logged and skipped; a fixed delay task is re-armed for its next run.
+ */
+public class DispatchingTaskScheduler implements TaskScheduler {
+    
+    private static final Logger logger = LoggerFactory.getLogger(DispatchingTaskScheduler.class);
+    
+    private final TaskScheduler triggerScheduler;
+    
+    private final Executor executor;
+    
+    public DispatchingTaskScheduler(TaskScheduler triggerScheduler, Executor executor) {
+        this.triggerScheduler = triggerScheduler;
+        this.executor = executor;
+    }
+    
+    public ScheduledFuture<?> schedule(Runnable task, Trigger trigger) {
+        return triggerScheduler.schedule(new Dispatch(task), trigger);
+    }
+    
+    public ScheduledFuture<?> schedule(Runnable task, Date startTime) {
+        return triggerScheduler.schedule(new Dispatch(task), startTime);
+    }
+    
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable task, Date startTime, long period) {
+        return triggerScheduler.scheduleAtFixedRate(new Dispatch(task), startTime, period);
+    }
+    
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long period) {
+        return triggerScheduler.scheduleAtFixedRate(new Dispatch(task), period);
+    }
+    
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable task, Date startTime, long delay) {
+        FixedDelayDispatch dispatch = new FixedDelayDispatch(task, delay);
+        dispatch.arm(startTime);
+        return dispatch;
+    }
+    
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable task, long delay) {
+        return scheduleWithFixedDelay(task, new Date(), delay);
+    }
+    
+    /**
+     * Hands the task body over to the executor, unless the previous run of the same task is still in flight.
+     */
+    private class Dispatch implements Runnable {
+        
+        private final Runnable task;
+        
+        private final AtomicBoolean running = new AtomicBoolean();
+        
+        Dispatch(Runnable task) {
+            this.task = TaskUtils.decorateTaskWithErrorHandler(task, null, true);
+        }
+        
+        public void run() {
+            if (!running.compareAndSet(false, true)) {
+                logger.debug("skipping {}, previous run still in progress", task);
+                return;
+            }
+            
+            try {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            task.run();
+                        } finally {
+                            running.set(false);
+                            completed();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Also TaskRejectedException from a Spring executor
+                running.set(false);
+                rejected(e);
+            }
+        }
+        
+        void completed() {
+        }
+        
+        void rejected(RejectedExecutionException e) {
+            logger.error("Executor did not take {}, skipping this run: {}", task, e.toString());
+        }
+    }
+    
+    /**
+     * A fixed delay task. Each run is triggered once by the trigger scheduler and, when the body finishes on the
+     * executor, the next run is triggered delay milliseconds later. It is also the future handed back to the caller,
+     * so cancelling it stops the chain.
+     */
+    private class FixedDelayDispatch extends Dispatch implements ScheduledFuture<Object> {
+        
+        private final long delay;
+        
+        private volatile boolean cancelled;
+        
+        private volatile ScheduledFuture<?> current;
+        
+        private final CountDownLatch cancelledSignal = new CountDownLatch(1);
+        
+        FixedDelayDispatch(Runnable task, long delay) {
+            super(task);
+            this.delay = delay;
+        }
+        
+        synchronized void arm(Date startTime) {
+            if (!cancelled) {
+                current = triggerScheduler.schedule(this, startTime);
+            }
+        }
+        
+        @Override
+        void rejected(RejectedExecutionException e) {
+            super.rejected(e);
+            // Keep the chain going, the next run may find the executor accepting again
+            completed();
+        }
+        
+        @Override
+        void completed() {
+            try {
+                arm(new Date(System.currentTimeMillis() + delay));
+            } catch (TaskRejectedException e) {
+                // The trigger scheduler was shut down while this run was in flight, see SpringContextShutdown
+                logger.debug("not re-arming {}, the trigger scheduler is shut down", this);
+            }
+        }
+        
+        public synchronized boolean cancel(boolean mayInterruptIfRunning) {
+            cancelled = true;
+            cancelledSignal.countDown();
+            return current == null || current.cancel(mayInterruptIfRunning);
+        }
+        
+        public boolean isCancelled() {
+            return cancelled;
+        }
+        
+        public boolean isDone() {
+            return cancelled;
+        }
+        
+        public long getDelay(TimeUnit unit) {
+            ScheduledFuture<?> f = current;
+            return f == null ? 0 : f.getDelay(unit);
+        }
+        
+        public int compareTo(Delayed other) {
+            long diff = getDelay(TimeUnit.NANOSECONDS) - other.getDelay(TimeUnit.NANOSECONDS);
+            return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+        }
+        
+        /**
+         * A fixed delay task only ends by being cancelled: waits for that, then throws CancellationException.
+         */
+        public Object get() throws InterruptedException, ExecutionException {
+            cancelledSignal.await();
+            throw new CancellationException();
+        }
+        
+        public Object get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+                TimeoutException {
+            if (!cancelledSignal.await(timeout, unit)) {
+                throw new TimeoutException();
+            }
+            throw new CancellationException();
+        }
+    }
+}
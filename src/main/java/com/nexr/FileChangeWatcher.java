@@ -0,0 +1,147 @@
+package com.nexr;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Calls a listener when a file changes, as seen by its modification time and length.
+ * 
+ * The watcher thread waits on a WatchService of the file's directory, so a change is usually picked up right away,
+ * but it also checks the file at least once a second, which covers file systems without change events. Editors and
+ * deployment tools often write a file in several steps, so the listener is only called once the file stayed the same
+ * for settleMillis.
+ */
+public class FileChangeWatcher implements Runnable {
+    
+    private static final Logger logger = LoggerFactory.getLogger(FileChangeWatcher.class);
+    
+    private final File file;
+    
+    private final Runnable listener;
+    
+    private final long settleMillis;
+    
+    private volatile boolean running = false;
+    
+    private volatile WatchService watchService;
+    
+    private Thread thread;
+    
+    public FileChangeWatcher(File file, long settleMillis, Runnable listener) {
+        this.file = file;
+        this.settleMillis = settleMillis;
+        this.listener = listener;
+    }
+    
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        
+        try {
+            File dir = file.getAbsoluteFile().getParentFile();
+            WatchService ws = FileSystems.getDefault().newWatchService();
+            dir.toPath().register(ws, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            watchService = ws;
+        } catch (IOException e) {
+            logger.warn("Can not watch {}, checking it every second instead: {}", file, e.toString());
+        }
+        
+        running = true;
+        thread = new Thread(this, "FileChangeWatcher-" + file.getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    public synchronized void stop() throws InterruptedException {
+        if (thread == null) {
+            return;
+        }
+        
+        running = false;
+        closeWatchService(); // Wakes the thread up if it waits for an event
+        thread.interrupt();
+        thread.join(1000);
+        thread = null;
+    }
+    
+    public void run() {
+        long lastModified = file.lastModified();
+        long lastLength = file.length();
+        
+        try {
+            while (running) {
+                waitForEvent();
+                
+                long modified = file.lastModified();
+                long length = file.length();
+                if (modified == lastModified && length == lastLength) {
+                    continue;
+                }
+                
+                // Let the writer finish
+                Thread.sleep(settleMillis);
+                if (modified != file.lastModified() || length != file.length()) {
+                    continue;
+                }
+                
+                lastModified = modified;
+                lastLength = length;
+                if (running) {
+                    logger.info("{} changed", file);
+                    listener.run();
+                }
+            }
+        } catch (InterruptedException e) {
+            // stop()
+        } finally {
+            closeWatchService();
+        }
+    }
+    
+    /**
+     * Waits at most a second for an event on the directory. Which file the event is for does not matter, the caller
+     * compares the file with what it saw before.
+     */
+    private void waitForEvent() throws InterruptedException {
+        WatchService ws = watchService;
+        if (ws == null) {
+            Thread.sleep(1000);
+            return;
+        }
+        
+        try {
+            WatchKey key = ws.poll(1, TimeUnit.SECONDS);
+            if (key != null) {
+                key.pollEvents();
+                if (!key.reset()) {
+                    logger.warn("Watch key of {} is no longer valid, checking it every second instead", file);
+                    closeWatchService();
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // stop()
+        }
+    }
+    
+    private void closeWatchService() {
+        WatchService ws = watchService;
+        
+        if (ws != null) {
+            watchService = null;
+            try {
+                ws.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+}
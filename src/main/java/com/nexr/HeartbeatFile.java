@@ -0,0 +1,337 @@
+package com.nexr;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A small memory-mapped file with the liveness of a {@link Daemon} processing loop, for watchdogs on the same host.
+ * 
+ * The loop updates it in place after every iteration, and a watchdog maps it too and reads it without a system call
+ * or any parsing. The layout is fixed, little endian:
+ * 
+ * <pre>
+ *  0 int  magic "NXHB"
+ *  4 int  layout version (1)
+ *  8 long sequence, odd while an update is being written
+ * 16 long pid of the daemon
+ * 24 long heartbeat, System.currentTimeMillis() of the last update
+ * 32 long loop iterations
+ * 40 long duration of the last iteration in nanoseconds
+ * 48 long failed iterations
+ * 56 long loop sleep in milliseconds, so a watchdog knows how old a heartbeat may get
+ * 64 int  state, see the STATE_ constants
+ * </pre>
+ * 
+ * Updates are guarded by the sequence like a seqlock: it is made odd, the fields are written, and it is made even
+ * again. A reader which saw the same even sequence before and after reading the fields got a consistent snapshot.
+ * ByteBuffer has no ordered puts or gets in Java 7, so volatile field accesses around the sequence accesses keep the JIT
+ * from moving the field accesses across them.
+ */
+public class HeartbeatFile {
+    
+    public static final int MAGIC = 0x4E584842; // "NXHB"
+    
+    public static final int VERSION = 1;
+    
+    public static final int STATE_STARTING = 0;
+    
+    public static final int STATE_RUNNING = 1;
+    
+    public static final int STATE_STOPPING = 2;
+    
+    public static final int STATE_STOPPED = 3;
+    
+    private static final String[] STATE_NAMES = { "starting", "running", "stopping", "stopped" };
+    
+    static final int SIZE = 128;
+    
+    private static final int SEQUENCE = 8;
+    
+    private static final int PID = 16;
+    
+    private static final int HEARTBEAT = 24;
+    
+    private static final int ITERATIONS = 32;
+    
+    private static final int LAST_ITERATION_NANOS = 40;
+    
+    private static final int FAILURES = 48;
+    
+    private static final int LOOP_SLEEP_MILLIS = 56;
+    
+    private static final int STATE = 64;
+    
+    private final File file;
+    
+    private final MappedByteBuffer buffer;
+    
+    private long sequence;
+    
+    /*
+     * Only written, as a compiler and memory barrier between the sequence and the field writes
+     */
+    @SuppressWarnings("unused")
+    private volatile long fence;
+    
+    private HeartbeatFile(File file, MappedByteBuffer buffer) {
+        this.file = file;
+        this.buffer = buffer;
+    }
+    
+    /**
+     * Creates the file or takes it over, maps it and writes the header with the pid of this process, in state starting.
+     * 
+     * An existing file is never truncated: a watchdog may have it mapped, and touching the mapping of a file shorter
+     * than the mapping kills its JVM with a SIGBUS. The header is rewritten as one update instead, which continues the
+     * sequence found in the file, so a reader sees the old or the new header but nothing in between.
+     */
+    public static HeartbeatFile create(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (raf.length() < SIZE) {
+                raf.setLength(SIZE);
+            }
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            
+            HeartbeatFile heartbeat = new HeartbeatFile(file, buffer);
+            if (buffer.getInt(0) == MAGIC) {
+                // Even, also after a writer which died in the middle of an update
+                long last = buffer.getLong(SEQUENCE);
+                heartbeat.sequence = last + (last & 1);
+            }
+            heartbeat.begin();
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            for (int offset = PID; offset < SIZE; offset += 8) {
+                buffer.putLong(offset, 0);
+            }
+            buffer.putLong(PID, PidFile.currentPid());
+            buffer.putLong(HEARTBEAT, System.currentTimeMillis());
+            buffer.putInt(STATE, STATE_STARTING);
+            heartbeat.end();
+            return heartbeat;
+        } finally {
+            // The mapping stays valid after the channel is closed
+            raf.close();
+        }
+    }
+    
+    public File getFile() {
+        return file;
+    }
+    
+    /**
+     * Records a loop iteration. Does not allocate.
+     */
+    public synchronized void beat(long iterations, long lastIterationNanos, long failures, long loopSleepMillis) {
+        begin();
+        buffer.putLong(HEARTBEAT, System.currentTimeMillis());
+        buffer.putLong(ITERATIONS, iterations);
+        buffer.putLong(LAST_ITERATION_NANOS, lastIterationNanos);
+        buffer.putLong(FAILURES, failures);
+        buffer.putLong(LOOP_SLEEP_MILLIS, loopSleepMillis);
+        end();
+    }
+    
+    public synchronized void setState(int state) {
+        begin();
+        buffer.putLong(HEARTBEAT, System.currentTimeMillis());
+        buffer.putInt(STATE, state);
+        end();
+    }
+    
+    private void begin() {
+        buffer.putLong(SEQUENCE, ++sequence);
+        fence = sequence;
+    }
+    
+    private void end() {
+        fence = sequence;
+        buffer.putLong(SEQUENCE, ++sequence);
+    }
+    
+    /**
+     * Reads the heartbeat file of another process once. Returns null if the file does not exist. Watchdogs which check
+     * the file over and over should keep a Reader, which maps the file once.
+     * 
+     * @throws IOException if the file is not a heartbeat file, or an update could not be read consistently
+     */
+    public static Snapshot read(File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        return new Reader(file).read();
+    }
+    
+    /**
+     * Maps a heartbeat file read-only once, after which every read() is a few memory loads.
+     */
+    public static final class Reader {
+        
+        private final File file;
+        
+        private final MappedByteBuffer buffer;
+        
+        /*
+         * Accessed between the sequence and the field reads, to keep them in order
+         */
+        private volatile long fence;
+        
+        public Reader(File file) throws IOException {
+            this.file = file;
+            
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                if (raf.length() < SIZE) {
+                    throw new IOException(file + " is not a heartbeat file");
+                }
+                buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, SIZE);
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+            } finally {
+                raf.close();
+            }
+        }
+        
+        /**
+         * @throws IOException if the file is not a heartbeat file, or an update could not be read consistently
+         */
+        public Snapshot read() throws IOException {
+            for (int attempt = 0; attempt < 1000; attempt++) {
+                long before = buffer.getLong(SEQUENCE);
+                if ((before & 1) != 0) {
+                    Thread.yield();
+                    continue;
+                }
+                long f = fence;
+                
+                if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                    throw new IOException(file + " is not a version " + VERSION + " heartbeat file");
+                }
+                Snapshot snapshot = new Snapshot(buffer.getLong(PID), buffer.getLong(HEARTBEAT),
+                        buffer.getLong(ITERATIONS), buffer.getLong(LAST_ITERATION_NANOS), buffer.getLong(FAILURES),
+                        buffer.getLong(LOOP_SLEEP_MILLIS), buffer.getInt(STATE));
+                
+                fence = f;
+                if (buffer.getLong(SEQUENCE) == before) {
+                    return snapshot;
+                }
+            }
+            throw new IOException("Could not read a consistent update of " + file);
+        }
+    }
+    
+    /**
+     * A consistent read of a heartbeat file.
+     */
+    public static final class Snapshot {
+        
+        private final long pid;
+        
+        private final long heartbeatMillis;
+        
+        private final long iterations;
+        
+        private final long lastIterationNanos;
+        
+        private final long failures;
+        
+        private final long loopSleepMillis;
+        
+        private final int state;
+        
+        Snapshot(long pid, long heartbeatMillis, long iterations, long lastIterationNanos, long failures,
+                long loopSleepMillis, int state) {
+            this.pid = pid;
+            this.heartbeatMillis = heartbeatMillis;
+            this.iterations = iterations;
+            this.lastIterationNanos = lastIterationNanos;
+            this.failures = failures;
+            this.loopSleepMillis = loopSleepMillis;
+            this.state = state;
+        }
+        
+        public long getPid() {
+            return pid;
+        }
+        
+        public long getHeartbeatMillis() {
+            return heartbeatMillis;
+        }
+        
+        public long getIterations() {
+            return iterations;
+        }
+        
+        public long getLastIterationNanos() {
+            return lastIterationNanos;
+        }
+        
+        public long getFailures() {
+            return failures;
+        }
+        
+        public long getLoopSleepMillis() {
+            return loopSleepMillis;
+        }
+        
+        public int getState() {
+            return state;
+        }
+        
+        /**
+         * Milliseconds since the last update.
+         */
+        public long getAgeMillis() {
+            return System.currentTimeMillis() - heartbeatMillis;
+        }
+        
+        /**
+         * true if the loop is running and updated the file within its sleep plus graceMillis.
+         */
+        public boolean isAlive(long graceMillis) {
+            return state == STATE_RUNNING && getAgeMillis() <= loopSleepMillis + graceMillis;
+        }
+        
+        @Override
+        public String toString() {
+            String stateName = state >= 0 && state < STATE_NAMES.length ? STATE_NAMES[state] : String.valueOf(state);
+            return "pid=" + pid + " state=" + stateName + " ageMillis=" + getAgeMillis() + " iterations=" + iterations
+                    + " lastIterationMicros=" + lastIterationNanos / 1000 + " failures=" + failures
+                    + " loopSleepMillis=" + loopSleepMillis;
+        }
+    }
+    
+    /**
+     * Prints a heartbeat file, for scripts:
+     * 
+     * java -cp &lt;agent jar&gt; com.nexr.HeartbeatFile &lt;file&gt; [graceMillis]
+     * 
+     * Exits with 0 if the loop is alive (see Snapshot.isAlive(), 60 seconds of grace by default), 1 if not, and 2 if the
+     * file can not be read.
+     */
+    @SuppressWarnings("PMD.DoNotCallSystemExit")
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: java " + HeartbeatFile.class.getName() + " <heartbeat file> [graceMillis]");
+            System.exit(2);
+        }
+        
+        try {
+            Snapshot snapshot = read(new File(args[0]));
+            if (snapshot == null) {
+                System.err.println(args[0] + " not found");
+                System.exit(2);
+            }
+            System.out.println(snapshot);
+            System.exit(snapshot.isAlive(args.length > 1 ? Long.parseLong(args[1]) : 60000L) ? 0 : 1);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+        }
+    }
+}
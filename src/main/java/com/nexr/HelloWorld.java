@@ -3,9 +3,7 @@ package com.nexr;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.stereotype.Service;
 
-@Service
 public class HelloWorld {
     private final Logger logger = LoggerFactory.getLogger(HelloWorld.class);
     private String name;
@@ -18,7 +16,7 @@ public class HelloWorld {
     }
  
     public void printHello() {
-        logger.info("Hello ! " + name);
+        logger.info("Hello ! {}", name);
     }
     
     public static String getenv(String key){
@@ -0,0 +1,58 @@
+package com.nexr;
+
+/**
+ * A host of the inventory: its name and its ClusterTopology roles. Immutable; two hosts are equal when the name and
+ * the roles are, which is what HostInventory compares to find the changed hosts.
+ */
+public final class Host {
+    
+    private final String name;
+    
+    private final int roles;
+    
+    /**
+     * @param name the host name, lower case like in ClusterTopology
+     * @param roles the roles as a bit set, see ClusterTopology.getRoles(String)
+     */
+    public Host(String name, int roles) {
+        if (name == null) {
+            throw new IllegalArgumentException("host name is null");
+        }
+        this.name = name;
+        this.roles = roles;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public int getRoles() {
+        return roles;
+    }
+    
+    public boolean hasRole(ClusterTopology.Role role) {
+        return (roles & role.bit()) != 0;
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Host)) {
+            return false;
+        }
+        Host other = (Host) o;
+        return roles == other.roles && name.equals(other.name);
+    }
+    
+    @Override
+    public int hashCode() {
+        return 31 * name.hashCode() + roles;
+    }
+    
+    @Override
+    public String toString() {
+        return name + "(roles=" + roles + ")";
+    }
+}
@@ -0,0 +1,238 @@
+package com.nexr;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * The versioned inventory of the cluster hosts, refreshed by Task.update().
+ * 
+ * Each refresh builds the new host map, compares it with the current Snapshot and, only if a host was added, removed
+ * or changed, publishes the new snapshot with one volatile write and hands the Delta to the listeners. Readers take
+ * getSnapshot() without locking and keep a consistent view for as long as they hold it. Listeners see each change
+ * once, instead of processing the whole host list on every refresh.
+ */
+@Service
+public class HostInventory {
+    
+    private static final Logger logger = LoggerFactory.getLogger(HostInventory.class);
+    
+    /**
+     * Told about the hosts which changed in a refresh.
+     */
+    public interface Listener {
+        
+        /**
+         * Called on the refreshing thread, once per new snapshot and in version order. Use
+         * HostInventory.getSnapshot() for the hosts at the time of registration.
+         */
+        void hostsChanged(Delta delta);
+    }
+    
+    /**
+     * An immutable version of the inventory.
+     */
+    public static final class Snapshot {
+        
+        private final long version;
+        
+        /*
+         * Unmodifiable, in the order the hosts were given to the refresh
+         */
+        private final Map<String, Host> hosts;
+        
+        Snapshot(long version, Map<String, Host> hosts) {
+            this.version = version;
+            this.hosts = hosts;
+        }
+        
+        /**
+         * 0 for the empty inventory before the first refresh, one more for each snapshot which changed something.
+         */
+        public long getVersion() {
+            return version;
+        }
+        
+        public Collection<Host> getHosts() {
+            return hosts.values();
+        }
+        
+        /**
+         * Returns the host of that name, null if it is not in this snapshot.
+         */
+        public Host getHost(String name) {
+            return hosts.get(name);
+        }
+        
+        public int size() {
+            return hosts.size();
+        }
+        
+        @Override
+        public String toString() {
+            return "version " + version + ", " + hosts.size() + " hosts";
+        }
+    }
+    
+    /**
+     * The difference between two consecutive snapshots.
+     */
+    public static final class Delta {
+        
+        private final Snapshot previous;
+        
+        private final Snapshot current;
+        
+        private final List<Host> added;
+        
+        private final List<Host> removed;
+        
+        private final List<Host> changed;
+        
+        Delta(Snapshot previous, Snapshot current, List<Host> added, List<Host> removed, List<Host> changed) {
+            this.previous = previous;
+            this.current = current;
+            this.added = Collections.unmodifiableList(added);
+            this.removed = Collections.unmodifiableList(removed);
+            this.changed = Collections.unmodifiableList(changed);
+        }
+        
+        public Snapshot getPrevious() {
+            return previous;
+        }
+        
+        public Snapshot getCurrent() {
+            return current;
+        }
+        
+        public List<Host> getAdded() {
+            return added;
+        }
+        
+        /**
+         * The hosts as they were in the previous snapshot.
+         */
+        public List<Host> getRemoved() {
+            return removed;
+        }
+        
+        /**
+         * The hosts as they are in the current snapshot; getPrevious().getHost(name) has the old state.
+         */
+        public List<Host> getChanged() {
+            return changed;
+        }
+        
+        public boolean isEmpty() {
+            return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+        }
+        
+        @Override
+        public String toString() {
+            return "version " + previous.getVersion() + " -> " + current.getVersion() + ": " + added.size()
+                    + " added, " + removed.size() + " removed, " + changed.size() + " changed";
+        }
+    }
+    
+    private volatile Snapshot snapshot = new Snapshot(0, Collections.<String, Host> emptyMap());
+    
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    
+    /**
+     * Returns the current snapshot. Does not lock.
+     */
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+    
+    public void addListener(Listener listener) {
+        listeners.addIfAbsent(listener);
+    }
+    
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+    
+    /**
+     * Takes the hosts of every role of the topology, see update(Collection).
+     */
+    public Delta refresh(ClusterTopology topology) {
+        Map<String, Host> hosts = new LinkedHashMap<String, Host>();
+        for (ClusterTopology.Role role : ClusterTopology.Role.values()) {
+            for (String name : topology.getHosts(role)) {
+                if (!hosts.containsKey(name)) {
+                    hosts.put(name, new Host(name, topology.getRoles(name)));
+                }
+            }
+        }
+        return publish(hosts);
+    }
+    
+    /**
+     * Replaces the hosts of the inventory. Returns the delta against the previous snapshot, empty if nothing changed,
+     * in which case the current snapshot stays and the listeners are not called.
+     * 
+     * @throws IllegalArgumentException if two hosts have the same name
+     */
+    public Delta update(Collection<Host> hosts) {
+        Map<String, Host> map = new LinkedHashMap<String, Host>();
+        for (Host host : hosts) {
+            if (map.put(host.getName(), host) != null) {
+                throw new IllegalArgumentException("Duplicate host " + host.getName());
+            }
+        }
+        return publish(map);
+    }
+    
+    /*
+     * Refreshes are serialized so that the deltas chain up and reach the listeners in version order
+     */
+    private synchronized Delta publish(Map<String, Host> hosts) {
+        Snapshot previous = snapshot;
+        List<Host> added = new ArrayList<Host>();
+        List<Host> removed = new ArrayList<Host>();
+        List<Host> changed = new ArrayList<Host>();
+        
+        for (Host host : hosts.values()) {
+            Host old = previous.getHost(host.getName());
+            if (old == null) {
+                added.add(host);
+            } else if (!old.equals(host)) {
+                changed.add(host);
+            }
+        }
+        if (previous.size() + added.size() != hosts.size()) {
+            for (Host old : previous.getHosts()) {
+                if (!hosts.containsKey(old.getName())) {
+                    removed.add(old);
+                }
+            }
+        }
+        
+        if (added.isEmpty() && removed.isEmpty() && changed.isEmpty()) {
+            return new Delta(previous, previous, added, removed, changed);
+        }
+        
+        Snapshot current = new Snapshot(previous.getVersion() + 1, Collections.unmodifiableMap(hosts));
+        snapshot = current;
+        
+        Delta delta = new Delta(previous, current, added, removed, changed);
+        logger.info("Host inventory {}", delta);
+        for (Listener listener : listeners) {
+            try {
+                listener.hostsChanged(delta);
+            } catch (RuntimeException e) {
+                logger.warn("Host inventory listener " + listener + " failed", e);
+            }
+        }
+        return delta;
+    }
+}
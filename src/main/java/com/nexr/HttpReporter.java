@@ -0,0 +1,375 @@
+package com.nexr;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Service;
+
+/**
+ * Sends the records reported by the scheduled tasks to the collector at report.url, in batches.
+ * 
+ * report() only adds the record to the current batch. A batch is sent when it holds report.batchSize records or
+ * report.flushMillis after its first record, whichever comes first, as one gzip compressed POST of newline separated
+ * records. At most report.maxInFlight requests run at the same time, over as many pooled keep-alive connections, so
+ * the agent does not open a connection per report. Up to report.maxQueuedBatches more batches wait for a sender; the
+ * batches beyond that, and those the collector refused, are dropped and counted, never retried.
+ * 
+ * The reporter is off until start() finds a report.url in the daemon's properties. Changed settings take effect on
+ * restart. The Spring context closes it, sending what is left within report.closeMillis.
+ */
+@Service
+public class HttpReporter implements DisposableBean {
+    
+    private static final Logger logger = LoggerFactory.getLogger(HttpReporter.class);
+    
+    /*
+     * Property keys, see DaemonConfig.getProperty()
+     */
+    public static final String URL = "report.url";
+    
+    public static final String BATCH_SIZE = "report.batchSize";
+    
+    public static final String FLUSH_MILLIS = "report.flushMillis";
+    
+    public static final String MAX_IN_FLIGHT = "report.maxInFlight";
+    
+    public static final String MAX_QUEUED_BATCHES = "report.maxQueuedBatches";
+    
+    public static final String CONNECT_TIMEOUT_MILLIS = "report.connectTimeoutMillis";
+    
+    public static final String SOCKET_TIMEOUT_MILLIS = "report.socketTimeoutMillis";
+    
+    public static final String CLOSE_MILLIS = "report.closeMillis";
+    
+    static final ContentType CONTENT_TYPE = ContentType.create("application/x-ndjson", Charset.forName("UTF-8"));
+    
+    /*
+     * Pooled connections idle for longer than this are closed, before the collector drops them
+     */
+    private static final long IDLE_CONNECTION_MILLIS = 30000;
+    
+    private final Object lock = new Object();
+    
+    /*
+     * The batch being filled and the timer which sends it, guarded by lock. null while no record is pending.
+     */
+    private List<String> batch;
+    
+    private ScheduledFuture<?> batchTimer;
+    
+    private volatile boolean running;
+    
+    private String url;
+    
+    private int batchSize;
+    
+    private long flushMillis;
+    
+    private long closeMillis;
+    
+    private ScheduledThreadPoolExecutor timer;
+    
+    private ThreadPoolExecutor senders;
+    
+    private PoolingClientConnectionManager connections;
+    
+    private DefaultHttpClient client;
+    
+    private final AtomicLong sentRecords = new AtomicLong();
+    
+    private final AtomicLong sentBatches = new AtomicLong();
+    
+    private final AtomicLong failedBatches = new AtomicLong();
+    
+    private final AtomicLong droppedRecords = new AtomicLong();
+    
+    /**
+     * Reads the settings from config and starts the reporter, unless report.url is not set or it already runs.
+     * 
+     * @throws IllegalArgumentException if a setting is invalid
+     */
+    public synchronized void start(DaemonConfig config) {
+        if (running) {
+            return;
+        }
+        url = config.getProperty(URL);
+        if (url == null || url.trim().isEmpty()) {
+            logger.info("Reporting is off, {} is not set", URL);
+            return;
+        }
+        url = url.trim();
+        batchSize = Math.max(1, getIntProperty(config, BATCH_SIZE, 500));
+        flushMillis = Math.max(1, config.getLongProperty(FLUSH_MILLIS, 5000));
+        closeMillis = config.getLongProperty(CLOSE_MILLIS, 5000);
+        int maxInFlight = Math.max(1, getIntProperty(config, MAX_IN_FLIGHT, 2));
+        int maxQueued = Math.max(1, getIntProperty(config, MAX_QUEUED_BATCHES, 10));
+        int connectTimeoutMillis = getIntProperty(config, CONNECT_TIMEOUT_MILLIS, 5000);
+        int socketTimeoutMillis = getIntProperty(config, SOCKET_TIMEOUT_MILLIS, 10000);
+        
+        connections = new PoolingClientConnectionManager();
+        connections.setMaxTotal(maxInFlight);
+        connections.setDefaultMaxPerRoute(maxInFlight);
+        client = new DefaultHttpClient(connections);
+        HttpParams params = client.getParams();
+        HttpConnectionParams.setConnectionTimeout(params, connectTimeoutMillis);
+        HttpConnectionParams.setSoTimeout(params, socketTimeoutMillis);
+        
+        senders = new ThreadPoolExecutor(maxInFlight, maxInFlight, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(maxQueued), new ReporterThreadFactory("HttpReporter-Send-"));
+        timer = new ScheduledThreadPoolExecutor(1, new ReporterThreadFactory("HttpReporter-Timer-"));
+        timer.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                connections.closeExpiredConnections();
+                connections.closeIdleConnections(IDLE_CONNECTION_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }, IDLE_CONNECTION_MILLIS, IDLE_CONNECTION_MILLIS, TimeUnit.MILLISECONDS);
+        
+        running = true;
+        logger.info("Reporting to {} in batches of up to {} records or {} ms, {} requests in flight",
+                new Object[] { url, batchSize, flushMillis, maxInFlight });
+    }
+    
+    private static int getIntProperty(DaemonConfig config, String key, int defaultValue) {
+        long value = config.getLongProperty(key, defaultValue);
+        if (value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(key + " is too large: " + value);
+        }
+        return (int) value;
+    }
+    
+    public boolean isRunning() {
+        return running;
+    }
+    
+    /**
+     * Adds a record, one line of the request body, to the current batch. Returns false, dropping the record, if the
+     * reporter does not run. Does not block on the network.
+     */
+    public boolean report(String record) {
+        if (!running) {
+            return false;
+        }
+        List<String> full = null;
+        synchronized (lock) {
+            if (!running) {
+                return false;
+            }
+            if (batch == null) {
+                batch = new ArrayList<String>(batchSize);
+                batchTimer = timer.schedule(new Runnable() {
+                    public void run() {
+                        flush();
+                    }
+                }, flushMillis, TimeUnit.MILLISECONDS);
+            }
+            batch.add(record);
+            if (batch.size() >= batchSize) {
+                full = takeBatch();
+            }
+        }
+        if (full != null) {
+            send(full);
+        }
+        return true;
+    }
+    
+    /**
+     * Hands the current batch to a sender now, if there is one.
+     */
+    public void flush() {
+        List<String> records;
+        synchronized (lock) {
+            records = takeBatch();
+        }
+        if (records != null) {
+            send(records);
+        }
+    }
+    
+    /*
+     * Called with lock held
+     */
+    private List<String> takeBatch() {
+        List<String> records = batch;
+        batch = null;
+        if (batchTimer != null) {
+            batchTimer.cancel(false);
+            batchTimer = null;
+        }
+        return records;
+    }
+    
+    private void send(List<String> records) {
+        try {
+            senders.execute(new Send(records));
+        } catch (RejectedExecutionException e) {
+            droppedRecords.addAndGet(records.size());
+            logger.warn("{} requests in flight and {} batches queued, dropping {} records", new Object[] {
+                    senders.getMaximumPoolSize(), senders.getQueue().size(), records.size() });
+        }
+    }
+    
+    private final class Send implements Runnable {
+        
+        private final List<String> records;
+        
+        Send(List<String> records) {
+            this.records = records;
+        }
+        
+        public void run() {
+            HttpPost post = new HttpPost(url);
+            try {
+                ByteArrayEntity entity = new ByteArrayEntity(gzip(records), CONTENT_TYPE);
+                entity.setContentEncoding("gzip");
+                post.setEntity(entity);
+                
+                HttpResponse response = client.execute(post);
+                int status = response.getStatusLine().getStatusCode();
+                // Reading the response to its end puts the connection back into the pool
+                EntityUtils.consume(response.getEntity());
+                
+                if (status / 100 == 2) {
+                    sentBatches.incrementAndGet();
+                    sentRecords.addAndGet(records.size());
+                } else {
+                    failedBatches.incrementAndGet();
+                    droppedRecords.addAndGet(records.size());
+                    logger.warn("{} refused {} records: {}", new Object[] { url, records.size(),
+                            response.getStatusLine() });
+                }
+            } catch (IOException e) {
+                failed(post, e);
+            } catch (RuntimeException e) {
+                // IllegalStateException from a connection pool which was shut down, or from a url without a host
+                failed(post, e);
+            }
+        }
+        
+        private void failed(HttpPost post, Exception e) {
+            post.abort();
+            failedBatches.incrementAndGet();
+            droppedRecords.addAndGet(records.size());
+            logger.warn("Sending {} records to {} failed: {}", new Object[] { records.size(), url, e.toString() });
+        }
+    }
+    
+    static byte[] gzip(List<String> records) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Writer out = new OutputStreamWriter(new GZIPOutputStream(bytes), CONTENT_TYPE.getCharset());
+        try {
+            for (String record : records) {
+                out.write(record);
+                out.write('\n');
+            }
+        } finally {
+            out.close();
+        }
+        return bytes.toByteArray();
+    }
+    
+    /**
+     * Stops taking records, sends the pending batch and waits up to timeoutMillis for the requests in flight, then
+     * aborts the rest and closes the connections.
+     */
+    public synchronized void close(long timeoutMillis) throws InterruptedException {
+        if (!running) {
+            return;
+        }
+        synchronized (lock) {
+            // No report() adds to a batch or starts a batch timer after this
+            running = false;
+        }
+        flush();
+        timer.shutdownNow();
+        senders.shutdown();
+        try {
+            if (!senders.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                List<Runnable> queued = senders.shutdownNow();
+                long records = 0;
+                for (Runnable send : queued) {
+                    records += ((Send) send).records.size();
+                }
+                droppedRecords.addAndGet(records);
+                logger.warn("Reports still in flight after {} ms, dropping {} queued batches of {} records",
+                        new Object[] { timeoutMillis, queued.size(), records });
+            }
+        } finally {
+            connections.shutdown();
+        }
+        logger.info("Reporter closed: {}", this);
+    }
+    
+    public void destroy() throws InterruptedException {
+        close(closeMillis);
+    }
+    
+    public long getSentRecordCount() {
+        return sentRecords.get();
+    }
+    
+    public long getSentBatchCount() {
+        return sentBatches.get();
+    }
+    
+    public long getFailedBatchCount() {
+        return failedBatches.get();
+    }
+    
+    /**
+     * The records which were refused, failed or did not fit into the queue.
+     */
+    public long getDroppedRecordCount() {
+        return droppedRecords.get();
+    }
+    
+    @Override
+    public String toString() {
+        return "sent " + sentRecords.get() + " records in " + sentBatches.get() + " batches, " + failedBatches.get()
+                + " batches failed, " + droppedRecords.get() + " records dropped";
+    }
+    
+    private static final class ReporterThreadFactory implements ThreadFactory {
+        
+        private final String prefix;
+        
+        private final AtomicInteger threadCnt = new AtomicInteger();
+        
+        ReporterThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+        
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix + threadCnt.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.nexr;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A small, lock free latency histogram in the spirit of HdrHistogram.
+ * 
+ * Values are recorded in microseconds into log-linear buckets: values below 64 get a bucket of their own, above that
+ * every power of two is split into 32 sub-buckets, which keeps the error of any reported value under about 3% while
+ * covering everything from 1 microsecond to hours in a fixed array of counters. Recording is a couple of shifts and an
+ * atomic increment, so it is cheap enough to wrap every loop iteration, and it can be called from several threads.
+ */
+public class LatencyHistogram {
+    
+    private static final int LINEAR_BUCKETS = 64;
+    
+    private static final int SUB_BUCKET_BITS = 5;
+    
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    
+    private static final int FIRST_EXPONENT = 6; // 2^6 == LINEAR_BUCKETS
+    
+    private static final int BUCKET_COUNT = LINEAR_BUCKETS + (63 - FIRST_EXPONENT) * SUB_BUCKETS;
+    
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    
+    private final AtomicLong totalCount = new AtomicLong();
+    
+    private final AtomicLong totalMicros = new AtomicLong();
+    
+    private final AtomicLong maxMicros = new AtomicLong();
+    
+    /**
+     * Records one value, given in nanoseconds.
+     */
+    public void recordNanos(long nanos) {
+        recordMicros(nanos / 1000);
+    }
+    
+    /**
+     * Records one value, given in microseconds. Negative values are recorded as zero.
+     */
+    public void recordMicros(long micros) {
+        long value = micros < 0 ? 0 : micros;
+        
+        counts.incrementAndGet(bucketIndex(value));
+        totalCount.incrementAndGet();
+        totalMicros.addAndGet(value);
+        
+        long max = maxMicros.get();
+        while (value > max && !maxMicros.compareAndSet(max, value)) {
+            max = maxMicros.get();
+        }
+    }
+    
+    public long getCount() {
+        return totalCount.get();
+    }
+    
+    public long getMaxMicros() {
+        return maxMicros.get();
+    }
+    
+    public long getMeanMicros() {
+        long count = totalCount.get();
+        return count == 0 ? 0 : totalMicros.get() / count;
+    }
+    
+    /**
+     * Returns the value at the given percentile (0 to 100) in microseconds, or 0 if nothing was recorded yet. The value
+     * returned is the upper bound of the bucket the percentile falls in, capped at the maximum recorded value.
+     */
+    public long getPercentileMicros(double percentile) {
+        long count = totalCount.get();
+        
+        if (count == 0) {
+            return 0;
+        }
+        
+        long rank = (long) Math.ceil(Math.min(100.0, Math.max(0.0, percentile)) / 100.0 * count);
+        if (rank < 1) {
+            rank = 1;
+        }
+        
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), maxMicros.get());
+            }
+        }
+        
+        return maxMicros.get();
+    }
+    
+    /**
+     * Clears all the recorded values. Values recorded concurrently with a reset may or may not survive it.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        totalCount.set(0);
+        totalMicros.set(0);
+        maxMicros.set(0);
+    }
+    
+    static int bucketIndex(long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+        
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        
+        return LINEAR_BUCKETS + (exponent - FIRST_EXPONENT) * SUB_BUCKETS + subBucket;
+    }
+    
+    static long bucketUpperBound(int index) {
+        if (index < LINEAR_BUCKETS) {
+            return index;
+        }
+        
+        int exponent = (index - LINEAR_BUCKETS) / SUB_BUCKETS + FIRST_EXPONENT;
+        long subBucket = (index - LINEAR_BUCKETS) % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        
+        return (1L << exponent) + (subBucket + 1) * width - 1;
+    }
+}
@@ -0,0 +1,243 @@
+package com.nexr;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanInitializationException;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+/**
+ * A ClassPathXmlApplicationContext which runs the expensive part of the bean setup, ParallelInitializingBean
+ * .initialize(), on a bounded pool.
+ * 
+ * Spring 3.1 creates singletons while holding the registry-wide singleton lock, so creating the beans themselves from
+ * several threads would not gain anything. Instead the eager singletons are created and wired as usual, which is cheap
+ * when the heavy work is kept out of the constructors and @PostConstruct methods, and the initialize() calls are
+ * collected. Once all eager singletons exist, they are run in waves: a bean is in the wave after the last wave holding
+ * a ParallelInitializingBean it depends on, directly or through other beans. The beans of one wave run concurrently.
+ * Everything completed before the ContextRefreshedEvent, so @Scheduled tasks only start on initialized beans.
+ * 
+ * With initThreads &lt;= 1 the initialize() calls run one by one on the refreshing thread, in the same order.
+ */
+public class ParallelInitApplicationContext extends ClassPathXmlApplicationContext {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ParallelInitApplicationContext.class);
+    
+    private final int initThreads;
+    
+    /*
+     * Beans waiting for initialize(), in creation order. Only touched by the refreshing thread.
+     */
+    private final Map<String, ParallelInitializingBean> pendingBeans = new LinkedHashMap<String, ParallelInitializingBean>();
+    
+    /*
+     * true while the eager singletons are being created. Beans created afterwards are initialized right away.
+     */
+    private volatile boolean collecting = false;
+    
+    public ParallelInitApplicationContext(String[] configLocations, int initThreads) {
+        super(configLocations, false);
+        this.initThreads = initThreads;
+    }
+    
+    public int getInitThreads() {
+        return initThreads;
+    }
+    
+    @Override
+    protected void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) {
+        super.postProcessBeanFactory(beanFactory);
+        beanFactory.addBeanPostProcessor(new CollectingPostProcessor(beanFactory));
+    }
+    
+    @Override
+    protected void finishBeanFactoryInitialization(ConfigurableListableBeanFactory beanFactory) {
+        pendingBeans.clear();
+        collecting = true;
+        try {
+            super.finishBeanFactoryInitialization(beanFactory);
+        } finally {
+            collecting = false;
+        }
+        
+        List<List<String>> waves = computeWaves(beanFactory);
+        if (logger.isInfoEnabled()) {
+            logger.info("Initializing {} beans in {} waves with {} threads", new Object[] { pendingBeans.size(),
+                    waves.size(), Math.max(initThreads, 1) });
+        }
+        if (initThreads <= 1) {
+            for (List<String> wave : waves) {
+                for (String beanName : wave) {
+                    initialize(beanName, pendingBeans.get(beanName));
+                }
+            }
+        } else {
+            initializeInParallel(waves);
+        }
+        pendingBeans.clear();
+    }
+    
+    /**
+     * Groups the pending beans into waves, so that every bean comes after all pending beans it transitively depends on.
+     */
+    private List<List<String>> computeWaves(ConfigurableListableBeanFactory beanFactory) {
+        Map<String, Integer> levels = new HashMap<String, Integer>();
+        List<List<String>> waves = new ArrayList<List<String>>();
+        for (String beanName : pendingBeans.keySet()) {
+            int level = levelOf(beanName, beanFactory, levels, new HashSet<String>());
+            while (waves.size() <= level) {
+                waves.add(new ArrayList<String>());
+            }
+            waves.get(level).add(beanName);
+        }
+        return waves;
+    }
+    
+    /**
+     * 0 for a pending bean without pending dependencies, else one more than the highest level among them. Beans which
+     * are not pending are walked through, but do not add a level.
+     */
+    private int levelOf(String beanName, ConfigurableListableBeanFactory beanFactory, Map<String, Integer> levels,
+            Set<String> path) {
+        Integer known = levels.get(beanName);
+        if (known != null) {
+            return known;
+        }
+        if (!path.add(beanName)) {
+            throw new BeanInitializationException("Circular dependency between parallel initialized beans: " + path);
+        }
+        Set<String> visited = new HashSet<String>();
+        int level = 0;
+        for (String dependency : beanFactory.getDependenciesForBean(beanName)) {
+            level = Math.max(level, dependencyLevel(dependency, beanFactory, levels, path, visited));
+        }
+        path.remove(beanName);
+        levels.put(beanName, level);
+        return level;
+    }
+    
+    private int dependencyLevel(String beanName, ConfigurableListableBeanFactory beanFactory,
+            Map<String, Integer> levels, Set<String> path, Set<String> visited) {
+        if (pendingBeans.containsKey(beanName)) {
+            return levelOf(beanName, beanFactory, levels, path) + 1;
+        }
+        // A plain bean: it may still sit between this bean and a pending one. visited guards against plain cycles,
+        // which Spring allows.
+        if (!visited.add(beanName)) {
+            return 0;
+        }
+        int level = 0;
+        for (String dependency : beanFactory.getDependenciesForBean(beanName)) {
+            level = Math.max(level, dependencyLevel(dependency, beanFactory, levels, path, visited));
+        }
+        return level;
+    }
+    
+    private void initializeInParallel(List<List<String>> waves) {
+        ExecutorService pool = Executors.newFixedThreadPool(initThreads, new InitThreadFactory());
+        try {
+            for (List<String> wave : waves) {
+                List<Future<?>> futures = new ArrayList<Future<?>>(wave.size());
+                for (final String beanName : wave) {
+                    final ParallelInitializingBean bean = pendingBeans.get(beanName);
+                    futures.add(pool.submit(new Callable<Void>() {
+                        public Void call() {
+                            initialize(beanName, bean);
+                            return null;
+                        }
+                    }));
+                }
+                for (int i = 0; i < futures.size(); i++) {
+                    awaitInitialized(wave.get(i), futures.get(i));
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+    
+    private static void awaitInitialized(String beanName, Future<?> future) {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BeanInitializationException("Interrupted while initializing bean '" + beanName + "'", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof BeansException) {
+                throw (BeansException) e.getCause();
+            }
+            throw new BeanInitializationException("Initialization of bean '" + beanName + "' failed", e.getCause());
+        }
+    }
+    
+    private static void initialize(String beanName, ParallelInitializingBean bean) {
+        long start = System.nanoTime();
+        try {
+            bean.initialize();
+        } catch (RuntimeException e) {
+            throw new BeanInitializationException("Initialization of bean '" + beanName + "' failed", e);
+        } catch (Exception e) {
+            throw new BeanInitializationException("Initialization of bean '" + beanName + "' failed", e);
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Initialized bean '{}' in {} ms", beanName, (System.nanoTime() - start) / 1000000L);
+        }
+    }
+    
+    /**
+     * Holds back initialize() of the eager singletons while they are being created, and calls it right away for
+     * everything else.
+     */
+    private final class CollectingPostProcessor implements BeanPostProcessor {
+        
+        private final ConfigurableListableBeanFactory beanFactory;
+        
+        CollectingPostProcessor(ConfigurableListableBeanFactory beanFactory) {
+            this.beanFactory = beanFactory;
+        }
+        
+        public Object postProcessBeforeInitialization(Object bean, String beanName) {
+            return bean;
+        }
+        
+        public Object postProcessAfterInitialization(Object bean, String beanName) {
+            if (bean instanceof ParallelInitializingBean) {
+                if (collecting && beanFactory.containsBeanDefinition(beanName)
+                        && beanFactory.getBeanDefinition(beanName).isSingleton()) {
+                    pendingBeans.put(beanName, (ParallelInitializingBean) bean);
+                } else {
+                    initialize(beanName, (ParallelInitializingBean) bean);
+                }
+            }
+            return bean;
+        }
+    }
+    
+    private static final class InitThreadFactory implements ThreadFactory {
+        
+        private final AtomicInteger threadCnt = new AtomicInteger();
+        
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "BeanInit-" + threadCnt.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
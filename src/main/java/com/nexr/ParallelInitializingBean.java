@@ -0,0 +1,18 @@
+package com.nexr;
+
+/**
+ * Implemented by beans with an expensive setup (opening connections, loading host lists, ...) which can run
+ * concurrently with the setup of the other beans.
+ * 
+ * In a ParallelInitApplicationContext, initialize() is called after all eager singletons were created and wired, on a
+ * bounded pool, and only once initialize() of every bean this one depends on (directly or through other beans)
+ * completed. Lazy beans are initialized on first use, on the thread which asked for them. Everywhere else it is called
+ * right after the bean's other init callbacks, like InitializingBean.afterPropertiesSet().
+ * 
+ * initialize() runs on a pool thread while AgentDaemon.init() holds the daemon monitor, so it must not call back into
+ * the synchronized Daemon methods.
+ */
+public interface ParallelInitializingBean {
+    
+    void initialize() throws Exception;
+}
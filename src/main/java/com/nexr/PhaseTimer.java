@@ -0,0 +1,86 @@
+package com.nexr;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records how long each phase of a multi step operation (daemon startup, shutdown) took, on the System.nanoTime()
+ * clock, and formats a one line report of it.
+ * 
+ * Phases are consecutive: mark(phase) closes the current phase, which started at start() or at the previous mark.
+ */
+public class PhaseTimer {
+    
+    private final String name;
+    
+    private final List<String> phases = new ArrayList<String>();
+    
+    private final List<Long> phaseNanos = new ArrayList<Long>();
+    
+    private long startNanos;
+    
+    private long lastNanos;
+    
+    public PhaseTimer(String name) {
+        this.name = name;
+    }
+    
+    /**
+     * Starts (or restarts) the timer and forgets the phases recorded so far.
+     */
+    public synchronized void start() {
+        phases.clear();
+        phaseNanos.clear();
+        startNanos = System.nanoTime();
+        lastNanos = startNanos;
+    }
+    
+    /**
+     * Ends the current phase and records it under the given name.
+     * 
+     * @return the duration of the phase in nanoseconds
+     */
+    public synchronized long mark(String phase) {
+        long now = System.nanoTime();
+        long elapsed = now - lastNanos;
+        
+        phases.add(phase);
+        phaseNanos.add(elapsed);
+        lastNanos = now;
+        
+        return elapsed;
+    }
+    
+    /**
+     * Returns the duration of the given phase in milliseconds, or -1 if it was not recorded.
+     */
+    public synchronized long getPhaseMillis(String phase) {
+        int i = phases.indexOf(phase);
+        return i < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(phaseNanos.get(i));
+    }
+    
+    /**
+     * Returns the time from start() to the last mark() in milliseconds.
+     */
+    public synchronized long getTotalMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(lastNanos - startNanos);
+    }
+    
+    /**
+     * Returns a report such as "Startup timing: properties=2 ms, context refresh=412 ms, total=414 ms".
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder(64);
+        sb.append(name).append(": ");
+        
+        for (int i = 0; i < phases.size(); i++) {
+            sb.append(phases.get(i)).append('=').append(TimeUnit.NANOSECONDS.toMillis(phaseNanos.get(i)));
+            sb.append(" ms, ");
+        }
+        sb.append("total=").append(getTotalMillis()).append(" ms");
+        
+        return sb.toString();
+    }
+}
@@ -0,0 +1,192 @@
+package com.nexr;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A PID file holding "&lt;pid&gt; &lt;start time&gt;" of the process which wrote it.
+ * 
+ * The start time is the one the kernel keeps in /proc/&lt;pid&gt;/stat (clock ticks since boot), so a process found
+ * under the same pid later on is only taken for the writer when its start time matches too. This way a stale PID file
+ * whose pid was reused by another process is detected. Where there is no /proc, the start time is "-" and the pid alone
+ * is trusted while the file exists.
+ */
+public class PidFile {
+    
+    private static final Logger logger = LoggerFactory.getLogger(PidFile.class);
+    
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    
+    private static final String NO_START_TIME = "-";
+    
+    /*
+     * starttime is the 22nd field of /proc/<pid>/stat, the 20th after the ")" closing the command name
+     */
+    private static final int START_TIME_FIELD_AFTER_COMM = 19;
+    
+    private final File file;
+    
+    public PidFile(File file) {
+        this.file = file;
+    }
+    
+    public File getFile() {
+        return file;
+    }
+    
+    /**
+     * Writes the pid and start time of the current process. The file is written next to its final name and then renamed,
+     * so a reader never sees it half written.
+     */
+    public void writeCurrentProcess() throws IOException {
+        long pid = currentPid();
+        String content = pid + " " + startTimeOf(pid) + "\n";
+        
+        File tmp = new File(file.getPath() + ".tmp");
+        Files.write(tmp.toPath(), content.getBytes(ASCII));
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.info("wrote pid file {}: {}", file, content.trim());
+    }
+    
+    /**
+     * Returns the process which wrote the PID file, or null when there is no PID file or its process is gone (including
+     * a pid which now belongs to another process).
+     */
+    public Owner readLiveOwner() throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        
+        String content;
+        try {
+            content = new String(Files.readAllBytes(file.toPath()), ASCII).trim();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        String[] parts = content.split("\\s+");
+        long pid;
+        try {
+            pid = Long.parseLong(parts[0]);
+        } catch (NumberFormatException e) {
+            logger.warn("ignoring malformed pid file {}: {}", file, content);
+            return null;
+        }
+        
+        Owner owner = new Owner(pid, parts.length > 1 ? parts[1] : NO_START_TIME);
+        return owner.isAlive() ? owner : null;
+    }
+    
+    /**
+     * Like readLiveOwner(), but also returns null for a PID file of the current process. Such a file was left behind by
+     * an earlier run in this JVM whose cleanup timed out before deleting it, see AgentDaemon.start().
+     */
+    public Owner readOtherLiveOwner() throws IOException {
+        Owner owner = readLiveOwner();
+        if (owner != null && owner.getPid() == currentPid()) {
+            logger.info("taking over pid file {}, left by an earlier run of this process", file);
+            return null;
+        }
+        return owner;
+    }
+    
+    /**
+     * Deletes the PID file if the current process wrote it.
+     */
+    public void deleteIfOwned() {
+        try {
+            Owner owner = readLiveOwner();
+            if (owner != null && owner.getPid() == currentPid() && file.delete()) {
+                logger.info("deleted pid file {}", file);
+            }
+        } catch (IOException e) {
+            logger.warn("could not delete pid file {}: {}", file, e.toString());
+        }
+    }
+    
+    /**
+     * The pid of the current JVM, parsed from the "pid@host" name of the RuntimeMXBean, which every JVM we run on uses.
+     */
+    public static long currentPid() {
+        String name = ManagementFactory.getRuntimeMXBean().getName();
+        int at = name.indexOf('@');
+        return Long.parseLong(at > 0 ? name.substring(0, at) : name);
+    }
+    
+    /**
+     * The start time of the process from /proc, "-" if there is no such process or no /proc.
+     */
+    static String startTimeOf(long pid) {
+        byte[] stat;
+        try {
+            stat = Files.readAllBytes(new File("/proc/" + pid + "/stat").toPath());
+        } catch (IOException e) {
+            return NO_START_TIME;
+        }
+        
+        // The command name may hold spaces and parentheses itself, so the fields are counted from the last ")"
+        String s = new String(stat, ASCII);
+        String[] fields = s.substring(s.lastIndexOf(')') + 2).split(" ");
+        return fields.length > START_TIME_FIELD_AFTER_COMM ? fields[START_TIME_FIELD_AFTER_COMM] : NO_START_TIME;
+    }
+    
+    /**
+     * The process recorded in a PID file.
+     */
+    public final class Owner {
+        
+        private final long pid;
+        
+        private final String startTime;
+        
+        Owner(long pid, String startTime) {
+            this.pid = pid;
+            this.startTime = startTime;
+        }
+        
+        public long getPid() {
+            return pid;
+        }
+        
+        public String getStartTime() {
+            return startTime;
+        }
+        
+        /**
+         * true while the process runs. Without a start time to compare, while the PID file still names it.
+         */
+        public boolean isAlive() {
+            if (NO_START_TIME.equals(startTime)) {
+                return file.exists();
+            }
+            return startTime.equals(startTimeOf(pid));
+        }
+        
+        /**
+         * Waits until the process is gone, checking every 50 ms. Returns false if it still runs after timeoutMillis.
+         */
+        public boolean waitForExit(long timeoutMillis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            
+            while (isAlive()) {
+                if (System.currentTimeMillis() >= deadline) {
+                    return false;
+                }
+                Thread.sleep(50);
+            }
+            return true;
+        }
+        
+        @Override
+        public String toString() {
+            return pid + " (started " + startTime + ")";
+        }
+    }
+}
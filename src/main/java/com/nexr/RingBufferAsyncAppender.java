@@ -0,0 +1,421 @@
+package com.nexr;
+
+import java.util.Enumeration;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Appender;
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.WriterAppender;
+import org.apache.log4j.helpers.AppenderAttachableImpl;
+import org.apache.log4j.spi.AppenderAttachable;
+import org.apache.log4j.spi.Filter;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * An asynchronous log4j appender. Logging threads only put the event into a bounded lock free ring buffer, and a single
+ * background thread takes the events out in batches and writes them to the attached appenders, so a slow disk behind
+ * stdout no longer shows up as latency in the daemon loop.
+ * 
+ * Writer appenders (the console appender for example) are only flushed once per batch instead of once per event.
+ * 
+ * When the buffer is full the event is either discarded (the default, counted in getDiscardedCount() and reported by a
+ * summary warning) or, with Blocking set to true, the logging thread waits until there is room again.
+ * 
+ * Configuration in log4j.xml:
+ * 
+ * <pre>
+ * &lt;appender name="async" class="com.nexr.RingBufferAsyncAppender"&gt;
+ *     &lt;param name="BufferSize" value="8192" /&gt;
+ *     &lt;param name="BatchSize" value="256" /&gt;
+ *     &lt;param name="Blocking" value="false" /&gt;
+ *     &lt;appender-ref ref="console" /&gt;
+ * &lt;/appender&gt;
+ * </pre>
+ */
+@SuppressWarnings({ "PMD.DoNotUseThreads", "PMD.AvoidCatchingGenericException" })
+public class RingBufferAsyncAppender extends AppenderSkeleton implements AppenderAttachable {
+    
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    
+    private static final long SHUTDOWN_FLUSH_MILLIS = 2000;
+    
+    /*
+     * The activated appenders which are not closed yet, for flushAll()
+     */
+    private static final CopyOnWriteArrayList<RingBufferAsyncAppender> ACTIVE =
+            new CopyOnWriteArrayList<RingBufferAsyncAppender>();
+    
+    private final AppenderAttachableImpl appenders = new AppenderAttachableImpl();
+    
+    private final AtomicLong discardedCnt = new AtomicLong();
+    
+    private int bufferSize = 8192;
+    
+    private int batchSize = 256;
+    
+    private boolean blocking = false;
+    
+    private boolean locationInfo = false;
+    
+    private volatile BoundedRingBuffer<LoggingEvent> buffer;
+    
+    private volatile Thread dispatcher;
+    
+    private volatile boolean dispatcherWaiting;
+    
+    /*
+     * True while the dispatcher holds events it took out of the buffer but did not write yet.
+     */
+    private volatile boolean dispatching;
+    
+    private volatile boolean closing;
+    
+    /*
+     * Number of discarded events already reported by a summary warning.
+     */
+    private long reportedDiscardedCnt;
+    
+    @Override
+    public void activateOptions() {
+        super.activateOptions();
+        
+        buffer = new BoundedRingBuffer<LoggingEvent>(bufferSize);
+        
+        Thread t = new Thread(new Dispatcher(), "RingBufferAsyncAppender-Dispatcher-" + getName());
+        t.setDaemon(true);
+        dispatcher = t;
+        t.start();
+        ACTIVE.add(this);
+        
+        // The dispatcher is a daemon thread, make sure what is still buffered gets written when the JVM exits.
+        Runtime.getRuntime().addShutdownHook(new Thread("RingBufferAsyncAppender-Flush-" + getName()) {
+            @Override
+            public void run() {
+                flush(SHUTDOWN_FLUSH_MILLIS);
+            }
+        });
+    }
+    
+    /**
+     * Same as AppenderSkeleton.doAppend() but without synchronizing on the appender, so that logging threads do not
+     * contend on a lock on their way to the ring buffer.
+     */
+    @Override
+    public void doAppend(LoggingEvent event) {
+        if (closed || !isAsSevereAsThreshold(event.getLevel())) {
+            return;
+        }
+        
+        Filter f = getFirstFilter();
+        while (f != null) {
+            int decision = f.decide(event);
+            if (decision == Filter.DENY) {
+                return;
+            } else if (decision == Filter.ACCEPT) {
+                break;
+            }
+            f = f.getNext();
+        }
+        
+        append(event);
+    }
+    
+    @Override
+    protected void append(LoggingEvent event) {
+        BoundedRingBuffer<LoggingEvent> buf = buffer;
+        
+        if (buf == null || closing || Thread.currentThread() == dispatcher) {
+            // Not activated yet, closing, or logging from an attached appender: write synchronously
+            synchronized (appenders) {
+                appenders.appendLoopOnAppenders(event);
+            }
+            return;
+        }
+        
+        // Capture everything which depends on the calling thread before handing the event over
+        event.getNDC();
+        event.getThreadName();
+        event.getMDCCopy();
+        event.getRenderedMessage();
+        event.getThrowableStrRep();
+        if (locationInfo) {
+            event.getLocationInformation();
+        }
+        
+        while (!buf.offer(event)) {
+            if (!blocking || closing) {
+                discardedCnt.incrementAndGet();
+                return;
+            }
+            wakeDispatcher();
+            LockSupport.parkNanos(FULL_PARK_NANOS);
+        }
+        
+        if (dispatcherWaiting) {
+            wakeDispatcher();
+        }
+    }
+    
+    private void wakeDispatcher() {
+        Thread t = dispatcher;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+    
+    /**
+     * Waits until every event logged before this call has been written to the attached appenders, or until the timeout
+     * expired.
+     * 
+     * @return true if everything was written
+     */
+    public boolean flush(long timeoutMillis) {
+        BoundedRingBuffer<LoggingEvent> buf = buffer;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        
+        while (buf != null && (!buf.isEmpty() || dispatching)) {
+            if (System.nanoTime() - deadline > 0 || !dispatcher.isAlive()) {
+                return false;
+            }
+            wakeDispatcher();
+            LockSupport.parkNanos(FULL_PARK_NANOS);
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Flushes every active RingBufferAsyncAppender of this class loader, all within the same timeout. Used by the
+     * daemon shutdown, so that it has its own deadline for the log lines still buffered.
+     * 
+     * @return true if everything was written
+     */
+    public static boolean flushAll(long timeoutMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        boolean flushed = true;
+        
+        for (RingBufferAsyncAppender appender : ACTIVE) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            flushed &= appender.flush(Math.max(0, remaining));
+        }
+        
+        return flushed;
+    }
+    
+    /**
+     * Stops the dispatcher thread after it wrote out everything still in the buffer, then closes the attached
+     * appenders.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closing = true;
+        ACTIVE.remove(this);
+        
+        Thread t = dispatcher;
+        if (t != null) {
+            LockSupport.unpark(t);
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        synchronized (appenders) {
+            @SuppressWarnings("unchecked")
+            Enumeration<Appender> e = appenders.getAllAppenders();
+            while (e != null && e.hasMoreElements()) {
+                e.nextElement().close();
+            }
+        }
+        closed = true;
+    }
+    
+    /**
+     * Runs on the dispatcher thread: drains the ring buffer in batches into the attached appenders.
+     */
+    private class Dispatcher implements Runnable {
+        
+        private final LoggingEvent[] batch = new LoggingEvent[batchSize];
+        
+        public void run() {
+            BoundedRingBuffer<LoggingEvent> buf = buffer;
+            
+            while (true) {
+                int n = 0;
+                LoggingEvent event;
+                dispatching = true;
+                while (n < batch.length && (event = buf.poll()) != null) {
+                    batch[n++] = event;
+                }
+                
+                if (n > 0) {
+                    dispatch(n);
+                }
+                dispatching = false;
+                
+                if (n > 0) {
+                    continue;
+                } else if (closing) {
+                    break;
+                } else {
+                    dispatcherWaiting = true;
+                    if (buf.isEmpty()) {
+                        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    }
+                    dispatcherWaiting = false;
+                }
+            }
+        }
+        
+        private void dispatch(int n) {
+            synchronized (appenders) {
+                reportDiscarded();
+                
+                for (int i = 0; i < n; i++) {
+                    setImmediateFlush(i == n - 1);
+                    try {
+                        appenders.appendLoopOnAppenders(batch[i]);
+                    } catch (RuntimeException e) {
+                        errorHandler.error("error writing a batched logging event", e, 0);
+                    }
+                    batch[i] = null;
+                }
+            }
+        }
+        
+        /**
+         * Only the dispatcher thread writes to the attached appenders, so it can switch their per event flushing off
+         * for all but the last event of a batch.
+         */
+        private void setImmediateFlush(boolean immediateFlush) {
+            @SuppressWarnings("unchecked")
+            Enumeration<Appender> e = appenders.getAllAppenders();
+            while (e != null && e.hasMoreElements()) {
+                Appender appender = e.nextElement();
+                if (appender instanceof WriterAppender) {
+                    ((WriterAppender) appender).setImmediateFlush(immediateFlush);
+                }
+            }
+        }
+        
+        private void reportDiscarded() {
+            long discarded = discardedCnt.get();
+            
+            if (discarded > reportedDiscardedCnt) {
+                String msg = "Discarded " + (discarded - reportedDiscardedCnt)
+                        + " logging events because the async appender buffer was full";
+                reportedDiscardedCnt = discarded;
+                appenders.appendLoopOnAppenders(new LoggingEvent(RingBufferAsyncAppender.class.getName(),
+                        org.apache.log4j.Logger.getLogger(RingBufferAsyncAppender.class), Level.WARN, msg, null));
+            }
+        }
+    }
+    
+    /**
+     * Returns the number of logging events discarded because the buffer was full.
+     */
+    public long getDiscardedCount() {
+        return discardedCnt.get();
+    }
+    
+    public boolean requiresLayout() {
+        return false;
+    }
+    
+    public int getBufferSize() {
+        return bufferSize;
+    }
+    
+    /**
+     * The number of events the ring buffer can hold, rounded up to a power of two.
+     */
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+    
+    public int getBatchSize() {
+        return batchSize;
+    }
+    
+    /**
+     * The maximum number of events written to the attached appenders between two flushes.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+    
+    public boolean getBlocking() {
+        return blocking;
+    }
+    
+    /**
+     * When true, logging threads wait for room in a full buffer instead of discarding the event.
+     */
+    public void setBlocking(boolean blocking) {
+        this.blocking = blocking;
+    }
+    
+    public boolean getLocationInfo() {
+        return locationInfo;
+    }
+    
+    /**
+     * When true, the caller location is captured before the event is queued, for layouts which print it. It is
+     * expensive, so it is off by default.
+     */
+    public void setLocationInfo(boolean locationInfo) {
+        this.locationInfo = locationInfo;
+    }
+    
+    public void addAppender(Appender newAppender) {
+        synchronized (appenders) {
+            appenders.addAppender(newAppender);
+        }
+    }
+    
+    @SuppressWarnings("rawtypes")
+    public Enumeration getAllAppenders() {
+        synchronized (appenders) {
+            return appenders.getAllAppenders();
+        }
+    }
+    
+    public Appender getAppender(String name) {
+        synchronized (appenders) {
+            return appenders.getAppender(name);
+        }
+    }
+    
+    public boolean isAttached(Appender appender) {
+        synchronized (appenders) {
+            return appenders.isAttached(appender);
+        }
+    }
+    
+    public void removeAllAppenders() {
+        synchronized (appenders) {
+            appenders.removeAllAppenders();
+        }
+    }
+    
+    public void removeAppender(Appender appender) {
+        synchronized (appenders) {
+            appenders.removeAppender(appender);
+        }
+    }
+    
+    public void removeAppender(String name) {
+        synchronized (appenders) {
+            appenders.removeAppender(name);
+        }
+    }
+}
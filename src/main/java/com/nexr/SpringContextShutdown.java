@@ -0,0 +1,152 @@
+package com.nexr;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+/**
+ * Closes a Spring context in order: first its task schedulers, so no new task is triggered, then its task executors,
+ * waiting for the tasks already handed to them, and only then the context itself.
+ * 
+ * ConfigurableApplicationContext.close() alone destroys the beans in reverse dependency order, and the scheduler and
+ * executor destroy methods just interrupt what is running. Here the running tasks get the time left within the
+ * deadline to complete, and what could not run is counted as cancelled.
+ */
+public class SpringContextShutdown {
+    
+    private static final Logger logger = LoggerFactory.getLogger(SpringContextShutdown.class);
+    
+    private final ConfigurableApplicationContext context;
+    
+    private final PhaseTimer timer = new PhaseTimer("Spring shutdown timing");
+    
+    private long schedulerCancelled;
+    
+    private long schedulerCompleted;
+    
+    private long executorCancelled;
+    
+    private long executorCompleted;
+    
+    public SpringContextShutdown(ConfigurableApplicationContext context) {
+        this.context = context;
+    }
+    
+    /**
+     * Shuts the schedulers and executors down and closes the context, all within timeoutMillis. Pools which did not
+     * terminate in time are interrupted. The context is closed in any case, also when the calling thread is interrupted.
+     * 
+     * @throws InterruptedException if the calling thread was interrupted while waiting for the pools
+     */
+    public void shutdown(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        timer.start();
+        
+        try {
+            if (context.isActive()) {
+                shutdownSchedulers(deadline);
+                timer.mark("scheduler");
+                
+                shutdownExecutors(deadline);
+                timer.mark("executor");
+            }
+        } finally {
+            context.close();
+            timer.mark("context");
+        }
+        
+        if (logger.isInfoEnabled()) {
+            logger.info("{}; {}", this, timer);
+        }
+    }
+    
+    private void shutdownSchedulers(long deadline) throws InterruptedException {
+        for (ThreadPoolTaskScheduler scheduler : context.getBeansOfType(ThreadPoolTaskScheduler.class).values()) {
+            if (!(scheduler.getScheduledExecutor() instanceof ScheduledThreadPoolExecutor)) {
+                continue;
+            }
+            ScheduledThreadPoolExecutor pool = (ScheduledThreadPoolExecutor) scheduler.getScheduledExecutor();
+            
+            // Drop the pending triggers, periodic and delayed alike; the runs in progress complete
+            pool.setContinueExistingPeriodicTasksAfterShutdownPolicy(false);
+            pool.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+            schedulerCancelled += pool.getQueue().size();
+            pool.shutdown();
+            
+            schedulerCancelled += await(pool, deadline);
+            schedulerCompleted += pool.getCompletedTaskCount();
+        }
+    }
+    
+    private void shutdownExecutors(long deadline) throws InterruptedException {
+        for (ThreadPoolTaskExecutor executor : context.getBeansOfType(ThreadPoolTaskExecutor.class).values()) {
+            ThreadPoolExecutor pool = executor.getThreadPoolExecutor();
+            
+            // Queued tasks still run, they were accepted before the schedulers stopped
+            pool.shutdown();
+            
+            executorCancelled += await(pool, deadline);
+            executorCompleted += pool.getCompletedTaskCount();
+        }
+    }
+    
+    /**
+     * Waits for the pool until the deadline, then interrupts it. Returns the number of queued tasks which did not run.
+     */
+    private static int await(ThreadPoolExecutor pool, long deadline) throws InterruptedException {
+        try {
+            if (pool.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return 0;
+            }
+            logger.warn("Tasks still running at the shutdown deadline, interrupting them: {}", pool);
+            return pool.shutdownNow().size();
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            throw e;
+        }
+    }
+    
+    /**
+     * The number of scheduled tasks which were not triggered anymore, or were still queued at the deadline.
+     */
+    public long getSchedulerCancelledCount() {
+        return schedulerCancelled;
+    }
+    
+    /**
+     * The number of scheduled task runs completed over the lifetime of the schedulers.
+     */
+    public long getSchedulerCompletedCount() {
+        return schedulerCompleted;
+    }
+    
+    /**
+     * The number of executor tasks still queued at the deadline.
+     */
+    public long getExecutorCancelledCount() {
+        return executorCancelled;
+    }
+    
+    /**
+     * The number of tasks completed over the lifetime of the executors.
+     */
+    public long getExecutorCompletedCount() {
+        return executorCompleted;
+    }
+    
+    public PhaseTimer getTimer() {
+        return timer;
+    }
+    
+    @Override
+    public String toString() {
+        return "Spring shutdown: scheduler cancelled=" + schedulerCancelled + " completed=" + schedulerCompleted
+                + ", executor cancelled=" + executorCancelled + " completed=" + executorCompleted;
+    }
+}
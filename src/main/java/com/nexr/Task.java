@@ -1,5 +1,11 @@
 package com.nexr;
 
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.jackson.map.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -10,18 +16,50 @@ import org.springframework.transaction.annotation.Transactional;
 @Component
 public class Task {
 
+    private static final ObjectMapper JSON = new ObjectMapper();
+
     private final Logger logger = LoggerFactory.getLogger(Task.class);
+
+    @Autowired
+    private ClusterTopologyService topologyService;
+
     @Autowired
-    private HelloWorld hello;
+    private HostInventory inventory;
+
+    @Autowired
+    private HttpReporter reporter;
 
     /**
-     * Update the hosts list every 10 minutes
+     * Update the hosts list every 10 minutes. The inventory only publishes a new version, and tells its listeners,
+     * when a host was added, removed or changed. Those hosts are also reported, one record each.
      */
     @Transactional
     @Scheduled(fixedDelay =  20 * 1000)
     public void update()  {
         logger.info("@@@@@@ run Task");
-        hello.printHello();
+        HostInventory.Delta delta = inventory.refresh(topologyService.getTopology());
+        if (!delta.isEmpty() && reporter.isRunning()) {
+            long version = delta.getCurrent().getVersion();
+            report("added", delta.getAdded(), version);
+            report("removed", delta.getRemoved(), version);
+            report("changed", delta.getChanged(), version);
+        }
+    }
+
+    private void report(String change, List<Host> hosts, long version) {
+        for (Host host : hosts) {
+            Map<String, Object> record = new LinkedHashMap<String, Object>();
+            record.put("type", "host");
+            record.put("change", change);
+            record.put("host", host.getName());
+            record.put("roles", host.getRoles());
+            record.put("version", version);
+            try {
+                reporter.report(JSON.writeValueAsString(record));
+            } catch (IOException e) {
+                logger.warn("Can not report host {}: {}", host, e.toString());
+            }
+        }
     }
 
 }
@@ -0,0 +1,98 @@
+package com.nexr;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Caches the formatted time stamp of the current second, so that getting a time stamp many times a second does not
+ * create a Date and format it every time.
+ * 
+ * Two formats are kept: the java.util.Date.toString() format used by Daemon.getTimeStamp() since the beginning (it
+ * has no milliseconds, so the whole string is reused within a second), and ISO-8601 with milliseconds, for which only
+ * the "yyyy-MM-ddTHH:mm:ss" prefix and the zone offset are cached and the milliseconds are appended on every call.
+ */
+final class TimeStampCache {
+    
+    /**
+     * The formatted values of one second. Immutable, so it can be published through a volatile field.
+     */
+    private static final class Entry {
+        final long second;
+        
+        final String dateString;
+        
+        final String isoPrefix;
+        
+        final String isoZone;
+        
+        Entry(long second, String dateString, String isoPrefix, String isoZone) {
+            this.second = second;
+            this.dateString = dateString;
+            this.isoPrefix = isoPrefix;
+            this.isoZone = isoZone;
+        }
+    }
+    
+    private static final SimpleDateFormat ISO_PREFIX_FORMAT = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+    
+    private static final SimpleDateFormat ISO_ZONE_FORMAT = new SimpleDateFormat("XXX");
+    
+    private static volatile Entry current = new Entry(Long.MIN_VALUE, null, null, null);
+    
+    private TimeStampCache() {
+    }
+    
+    /**
+     * Returns the java.util.Date.toString() formatted time stamp of the given time.
+     */
+    static String dateString(long millis) {
+        return entry(millis).dateString;
+    }
+    
+    /**
+     * Appends the ISO-8601 time stamp with milliseconds and zone offset of the given time, for example
+     * 2012-08-19T14:03:09.042+09:00.
+     */
+    static StringBuilder appendIso(long millis, StringBuilder sb) {
+        Entry e = entry(millis);
+        int ms = (int) (millis - e.second * 1000);
+        
+        sb.append(e.isoPrefix).append('.');
+        sb.append((char) ('0' + ms / 100)).append((char) ('0' + ms / 10 % 10)).append((char) ('0' + ms % 10));
+        sb.append(e.isoZone);
+        
+        return sb;
+    }
+    
+    private static Entry entry(long millis) {
+        long second = floorDiv(millis, 1000);
+        Entry e = current;
+        
+        if (e.second != second) {
+            e = refresh(second);
+        }
+        
+        return e;
+    }
+    
+    private static synchronized Entry refresh(long second) {
+        Entry e = current;
+        
+        if (e.second != second) {
+            Date date = new Date(second * 1000);
+            e = new Entry(second, date.toString(), ISO_PREFIX_FORMAT.format(date), ISO_ZONE_FORMAT.format(date));
+            
+            // Do not let a thread with an old clock reading move the cache back in time
+            if (second > current.second) {
+                current = e;
+            }
+        }
+        
+        return e;
+    }
+    
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        return (x % y < 0) ? q - 1 : q;
+    }
+}
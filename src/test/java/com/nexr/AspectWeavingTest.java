@@ -0,0 +1,63 @@
+package com.nexr;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.util.ClassUtils;
+
+/**
+ * The Spring aspects are woven into the agent's classes at build time, so the classes must carry what ajc added, and
+ * the context must not create any runtime proxy: a <tx:annotation-driven/> or <aop:aspectj-autoproxy/> added to the
+ * context files would wrap Task in a CGLIB subclass and put an interceptor chain in front of every scheduled run.
+ */
+public class AspectWeavingTest extends TestCase {
+    
+    @Test
+    public void testTaskIsWovenAtBuildTime() {
+        // ajc adds the join point statics of the transaction aspect's advice to the class, javac alone adds nothing
+        List<String> ajcMembers = new ArrayList<String>();
+        for (Field field : Task.class.getDeclaredFields()) {
+            if (field.getName().startsWith("ajc$")) {
+                ajcMembers.add(field.getName());
+            }
+        }
+        for (Method method : Task.class.getDeclaredMethods()) {
+            if (method.getName().startsWith("ajc$")) {
+                ajcMembers.add(method.getName());
+            }
+        }
+        assertFalse("Task was not woven by ajc, see the aspectj-maven-plugin in pom.xml", ajcMembers.isEmpty());
+    }
+    
+    @Test
+    public void testAgentContextCreatesNoProxies() throws Exception {
+        assertNoProxies("classpath:/spring/root-context.xml");
+    }
+    
+    @Test
+    public void testScanningContextCreatesNoProxies() throws Exception {
+        assertNoProxies("classpath:/spring/root-context-scan.xml");
+    }
+    
+    private static void assertNoProxies(String contextPath) throws Exception {
+        ParallelInitApplicationContext context = new ParallelInitApplicationContext(new String[] { contextPath }, 1);
+        try {
+            context.refresh();
+            
+            for (String name : context.getBeanDefinitionNames()) {
+                Object bean = context.getBean(name);
+                assertFalse(name + " is a proxy", AopUtils.isAopProxy(bean));
+                assertFalse(name + " is a CGLIB subclass", ClassUtils.isCglibProxyClass(bean.getClass()));
+            }
+            assertSame(Task.class, context.getBean(Task.class).getClass());
+        } finally {
+            new SpringContextShutdown(context).shutdown(5000);
+        }
+    }
+}
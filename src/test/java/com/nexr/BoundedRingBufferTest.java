@@ -0,0 +1,63 @@
+package com.nexr;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class BoundedRingBufferTest extends TestCase {
+    
+    @Test
+    public void testOfferFailsWhenFull() {
+        BoundedRingBuffer<Integer> buffer = new BoundedRingBuffer<Integer>(3);
+        
+        assertEquals(4, buffer.capacity());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertFalse(buffer.offer(4));
+        
+        assertEquals(Integer.valueOf(0), buffer.poll());
+        assertTrue(buffer.offer(4));
+        for (int i = 1; i <= 4; i++) {
+            assertEquals(Integer.valueOf(i), buffer.poll());
+        }
+        assertNull(buffer.poll());
+        assertTrue(buffer.isEmpty());
+    }
+    
+    @Test
+    public void testConcurrentProducersLoseNothing() throws Exception {
+        final BoundedRingBuffer<Integer> buffer = new BoundedRingBuffer<Integer>(64);
+        final int producers = 4;
+        final int perProducer = 50000;
+        Thread[] threads = new Thread[producers];
+        
+        for (int p = 0; p < producers; p++) {
+            threads[p] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perProducer; i++) {
+                        while (!buffer.offer(1)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            };
+            threads[p].start();
+        }
+        
+        long sum = 0;
+        while (sum < producers * perProducer) {
+            Integer value = buffer.poll();
+            if (value != null) {
+                sum += value;
+            }
+        }
+        
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(producers * perProducer, sum);
+        assertNull(buffer.poll());
+    }
+}
@@ -0,0 +1,77 @@
+package com.nexr;
+
+import java.util.Arrays;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import com.nexr.ClusterTopology.Role;
+
+public class ClusterTopologyTest extends TestCase {
+    
+    private static final String HADOOP_MASTER_NODES = "localhost cnode1 cnode2";
+    
+    private static final String ZOOKEEPER_NODES = "localhost cnode2 cnode1";
+    
+    @Test
+    public void testRolesOfHosts() {
+        ClusterTopology topology = ClusterTopology.parse(new String[] { HADOOP_MASTER_NODES, "cnode2,CNODE3  cnode2" },
+                "CNode1");
+        
+        assertTrue(topology.isLocalHadoopMaster());
+        assertFalse(topology.isLocalZookeeper());
+        assertTrue(topology.hasRole("cnode3", Role.ZOOKEEPER));
+        assertFalse(topology.hasRole("cnode3", Role.HADOOP_MASTER));
+        assertEquals(Role.HADOOP_MASTER.bit() | Role.ZOOKEEPER.bit(), topology.getRoles("cnode2"));
+        assertEquals(0, topology.getRoles("cnode9"));
+        
+        assertEquals(Arrays.asList("localhost", "cnode1", "cnode2"), topology.getHosts(Role.HADOOP_MASTER));
+        assertEquals(Arrays.asList("cnode2", "cnode3"), topology.getHosts(Role.ZOOKEEPER));
+        try {
+            topology.getHosts(Role.ZOOKEEPER).add("cnode4");
+            fail("host list is modifiable");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+    
+    @Test
+    public void testMissingVariablesMeanNoHosts() {
+        ClusterTopology topology = ClusterTopology.parse(new String[] { null, " " }, "cnode1");
+        
+        assertFalse(topology.isLocalHadoopMaster());
+        assertTrue(topology.getHosts(Role.HADOOP_MASTER).isEmpty());
+        assertTrue(topology.getHosts(Role.ZOOKEEPER).isEmpty());
+    }
+    
+    @Test
+    public void testServiceParsesOnceAndRefreshesWithOverrides() {
+        final int[] getenvCnt = new int[1];
+        ClusterTopologyService service = new ClusterTopologyService() {
+            @Override
+            protected String getenv(String key) {
+                getenvCnt[0]++;
+                return Role.HADOOP_MASTER.getEnvKey().equals(key) ? HADOOP_MASTER_NODES : ZOOKEEPER_NODES;
+            }
+        };
+        service.setLocalHostName("cnode1");
+        service.initialize();
+        
+        ClusterTopology topology = service.getTopology();
+        assertSame(topology, service.getTopology());
+        assertEquals(2, getenvCnt[0]);
+        assertTrue(topology.isLocalZookeeper());
+        
+        Properties props = new Properties();
+        props.setProperty(Role.ZOOKEEPER.getEnvKey(), "znode1 znode2");
+        service.refresh(DaemonConfig.fromProperties(props, DaemonConfig.DEFAULTS));
+        
+        assertFalse(service.getTopology().isLocalZookeeper());
+        assertTrue(service.getTopology().isLocalHadoopMaster());
+        assertEquals(Arrays.asList("znode1", "znode2"), service.getTopology().getHosts(Role.ZOOKEEPER));
+        // The old snapshot is unchanged
+        assertTrue(topology.isLocalZookeeper());
+    }
+}
@@ -0,0 +1,41 @@
+package com.nexr;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.xml.XmlBeanDefinitionReader;
+import org.springframework.context.annotation.ClassPathScanningCandidateComponentProvider;
+import org.springframework.core.io.ClassPathResource;
+
+/**
+ * spring/components.xml lists the components explicitly so that the agent does not scan the classpath at startup.
+ * This test does the scan once at build time and fails if the list is out of date.
+ */
+public class ComponentsIndexTest extends TestCase {
+    
+    @Test
+    public void testComponentsXmlListsEveryComponent() {
+        Set<String> scanned = new TreeSet<String>();
+        ClassPathScanningCandidateComponentProvider scanner = new ClassPathScanningCandidateComponentProvider(true);
+        for (BeanDefinition bd : scanner.findCandidateComponents("com.nexr")) {
+            scanned.add(bd.getBeanClassName());
+        }
+        
+        Set<String> listed = new TreeSet<String>();
+        DefaultListableBeanFactory factory = new DefaultListableBeanFactory();
+        new XmlBeanDefinitionReader(factory).loadBeanDefinitions(new ClassPathResource("spring/components.xml"));
+        for (String name : factory.getBeanDefinitionNames()) {
+            String className = factory.getBeanDefinition(name).getBeanClassName();
+            if (className.startsWith("com.nexr.")) {
+                listed.add(className);
+            }
+        }
+        
+        assertEquals("spring/components.xml is out of date", scanned, listed);
+    }
+}
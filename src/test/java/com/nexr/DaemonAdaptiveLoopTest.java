@@ -0,0 +1,80 @@
+package com.nexr;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class DaemonAdaptiveLoopTest extends TestCase {
+    
+    @Test
+    public void testIntervalBacksOffWhenIdleAndShrinksUnderBacklog() throws Exception {
+        // Work found by each iteration: idle five times, then a burst, then idle again
+        final long[] work = { 0, 0, 0, 0, 0, 3, 0 };
+        final List<Long> intervals = new ArrayList<Long>();
+        final CountDownLatch done = new CountDownLatch(1);
+        
+        Daemon daemon = new Daemon() {
+            @Override
+            protected long customExecuteProcessingWork(int workerIndex, int workerCount) {
+                int i = intervals.size();
+                if (i == work.length) {
+                    done.countDown();
+                    return 0;
+                }
+                intervals.add(getAdaptiveSleepMillis());
+                return work[i];
+            }
+        };
+        daemon.setProcessLoopSleepMillis(60000);
+        daemon.setAdaptiveLoopSleepMillis(5, 40);
+        
+        long start = System.nanoTime();
+        daemon.startProcessingLoop();
+        try {
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        } finally {
+            daemon.stopProcessingLoop();
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        
+        // The interval each iteration started after, before jitter
+        assertEquals(String.valueOf(intervals), 0L, (long) intervals.get(0));
+        assertEquals(5L, (long) intervals.get(1));
+        assertEquals(10L, (long) intervals.get(2));
+        assertEquals(20L, (long) intervals.get(3));
+        assertEquals(40L, (long) intervals.get(4));
+        assertEquals(40L, (long) intervals.get(5));
+        assertEquals(5L, (long) intervals.get(6));
+        
+        // Far below the 60 second fixed period, and the jitter only ever takes off up to 20%
+        assertTrue("took " + elapsedMillis + " ms", elapsedMillis < 5000);
+        assertTrue("took " + elapsedMillis + " ms", elapsedMillis >= (5 + 10 + 20 + 40 + 40 + 5 + 10) * 8 / 10);
+    }
+    
+    @Test
+    public void testBoundsFromProperties() {
+        Properties props = new Properties();
+        props.setProperty(DaemonConfig.ADAPTIVE_MIN_SLEEP_MILLIS, "100");
+        props.setProperty(DaemonConfig.ADAPTIVE_MAX_SLEEP_MILLIS, "30000");
+        
+        DaemonConfig config = DaemonConfig.fromProperties(props, DaemonConfig.DEFAULTS);
+        assertTrue(config.isAdaptiveLoop());
+        assertEquals(100, config.getAdaptiveMinSleepMillis());
+        assertEquals(30000, config.getAdaptiveMaxSleepMillis());
+        assertFalse(DaemonConfig.DEFAULTS.isAdaptiveLoop());
+        
+        props.setProperty(DaemonConfig.ADAPTIVE_MIN_SLEEP_MILLIS, "60000");
+        try {
+            DaemonConfig.fromProperties(props, DaemonConfig.DEFAULTS);
+            fail("minimum above the maximum accepted");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith(DaemonConfig.ADAPTIVE_MIN_SLEEP_MILLIS));
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.nexr;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class DaemonConfigTest extends TestCase {
+    
+    @Test
+    public void testFromPropertiesKeepsUnsetValues() {
+        DaemonConfig current = DaemonConfig.DEFAULTS.withProcessLoopSleepMillis(7000).withStopFileSleepSecs(5);
+        Properties props = new Properties();
+        props.setProperty(DaemonConfig.PROCESS_LOOP_SLEEP_MILLIS, " 250 ");
+        props.setProperty("collector.hosts", "cnode1");
+        
+        DaemonConfig config = DaemonConfig.fromProperties(props, current);
+        assertEquals(250, config.getProcessLoopSleepMillis());
+        assertEquals(5, config.getStopFileSleepSecs());
+        assertEquals("cnode1", config.getProperty("collector.hosts"));
+        
+        // The snapshot does not follow later changes of the properties it was read from
+        props.setProperty("collector.hosts", "cnode2");
+        assertEquals("cnode1", config.getProperty("collector.hosts"));
+    }
+    
+    @Test
+    public void testInvalidValuesAreRejected() {
+        Properties props = new Properties();
+        props.setProperty(DaemonConfig.PROCESS_LOOP_SLEEP_MILLIS, "-1");
+        try {
+            DaemonConfig.fromProperties(props, DaemonConfig.DEFAULTS);
+            fail("negative interval accepted");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith(DaemonConfig.PROCESS_LOOP_SLEEP_MILLIS));
+        }
+        
+        props.setProperty(DaemonConfig.PROCESS_LOOP_SLEEP_MILLIS, "10");
+        props.setProperty(DaemonConfig.STOP_FILE_WATCHER_SLEEP_SECONDS, "five");
+        try {
+            DaemonConfig.fromProperties(props, DaemonConfig.DEFAULTS);
+            fail("non numeric interval accepted");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith(DaemonConfig.STOP_FILE_WATCHER_SLEEP_SECONDS));
+        }
+        
+        props.setProperty(DaemonConfig.STOP_FILE_WATCHER_SLEEP_SECONDS, "-5");
+        try {
+            DaemonConfig.fromProperties(props, DaemonConfig.DEFAULTS);
+            fail("negative stop file check interval accepted");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith(DaemonConfig.STOP_FILE_WATCHER_SLEEP_SECONDS));
+        }
+        
+        try {
+            DaemonConfig.DEFAULTS.withStopFileSleepSecs(-5);
+            fail("negative stop file check interval accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+    
+    @Test
+    public void testNegativeLoopSleepIsRejected() {
+        try {
+            DaemonConfig.DEFAULTS.withProcessLoopSleepMillis(-1);
+            fail("negative loop sleep accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        
+        Daemon daemon = new Daemon();
+        daemon.setProcessLoopSleepMillis(250);
+        try {
+            daemon.setProcessLoopSleepMillis(-250);
+            fail("negative loop sleep accepted");
+        } catch (IllegalArgumentException e) {
+            assertEquals(250, daemon.getConfig().getProcessLoopSleepMillis());
+        }
+    }
+    
+    private static void write(File file, String loopSleepMillis) throws Exception {
+        Properties props = new Properties();
+        props.setProperty(DaemonConfig.PROCESS_LOOP_SLEEP_MILLIS, loopSleepMillis);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            props.store(out, null);
+        } finally {
+            out.close();
+        }
+    }
+    
+    @Test
+    public void testReloadAppliesLoopIntervalToTheRunningLoop() throws Exception {
+        File file = File.createTempFile("DaemonConfigTest", ".properties");
+        Daemon daemon = new Daemon();
+        try {
+            write(file, "60000");
+            daemon.loadProperties(file.getPath());
+            daemon.init();
+            assertEquals(60000, daemon.getConfig().getProcessLoopSleepMillis());
+            
+            daemon.startProcessingLoop();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (daemon.getLoopIterationCount() < 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, daemon.getLoopIterationCount());
+            
+            // A broken file is rejected and the loop keeps its interval
+            write(file, "soon");
+            try {
+                daemon.reload();
+                fail("invalid interval accepted");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            assertEquals(60000, daemon.getConfig().getProcessLoopSleepMillis());
+            
+            // The worker is in the middle of its 60 second sleep, the new interval has to cut it short
+            write(file, "10");
+            daemon.reload();
+            deadline = System.currentTimeMillis() + 5000;
+            while (daemon.getLoopIterationCount() < 5 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue("iterations: " + daemon.getLoopIterationCount(), daemon.getLoopIterationCount() >= 5);
+        } finally {
+            daemon.stopProcessingLoop();
+            daemon.cleanup();
+            file.delete();
+        }
+    }
+    
+    @Test
+    public void testKeyRemovedFromTheFileGoesBackToItsValueSetInCode() throws Exception {
+        File file = File.createTempFile("DaemonConfigTest", ".properties");
+        Daemon daemon = new Daemon();
+        try {
+            daemon.setStopFileWatcherSleepSeconds(5);
+            Properties props = new Properties();
+            props.setProperty(DaemonConfig.PROCESS_LOOP_SLEEP_MILLIS, "250");
+            props.setProperty(DaemonConfig.STOP_FILE_WATCHER_SLEEP_SECONDS, "9");
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                props.store(out, null);
+            } finally {
+                out.close();
+            }
+            daemon.loadProperties(file.getPath());
+            daemon.init();
+            assertEquals(250, daemon.getConfig().getProcessLoopSleepMillis());
+            assertEquals(9, daemon.getConfig().getStopFileSleepSecs());
+            
+            write(file, "500");
+            daemon.reload();
+            assertEquals(500, daemon.getConfig().getProcessLoopSleepMillis());
+            assertEquals(5, daemon.getConfig().getStopFileSleepSecs());
+            
+            // Set in code after init, and in the file: the file wins
+            daemon.setStopFileWatcherSleepSeconds(7);
+            daemon.setProcessLoopSleepMillis(100);
+            daemon.reload();
+            assertEquals(500, daemon.getConfig().getProcessLoopSleepMillis());
+            assertEquals(7, daemon.getConfig().getStopFileSleepSecs());
+        } finally {
+            daemon.cleanup();
+            file.delete();
+        }
+    }
+}
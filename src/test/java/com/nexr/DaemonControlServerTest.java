@@ -0,0 +1,132 @@
+package com.nexr;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class DaemonControlServerTest extends TestCase {
+    
+    private File controlFile;
+    
+    private DaemonControlServer server;
+    
+    private int reloadCnt = 0;
+    
+    private final Daemon daemon = new Daemon() {
+        @Override
+        protected synchronized void customProcessReload() {
+            reloadCnt++;
+        }
+    };
+    
+    @Override
+    protected void setUp() throws Exception {
+        controlFile = File.createTempFile("DaemonControlServerTest", ".control");
+        server = new DaemonControlServer(daemon, controlFile, 0);
+        server.start();
+    }
+    
+    @Override
+    protected void tearDown() throws Exception {
+        server.close();
+        controlFile.delete();
+    }
+    
+    private String send(String command) throws IOException {
+        return DaemonControlClient.send(controlFile, command, 5000);
+    }
+    
+    @Test
+    public void testStatusReloadAndStop() throws Exception {
+        daemon.startProcessingLoopFaked();
+        assertTrue(send("status"), send("status").startsWith("OK state=running iterations=0 uptimeMillis="));
+        
+        assertEquals("OK reloaded", send("reload"));
+        assertEquals(1, reloadCnt);
+        
+        assertEquals("OK stopping", send("stop"));
+        daemon.waitWhileExecuting();
+        assertFalse(daemon.isProcessingLoopRunning());
+        assertTrue(send("status").startsWith("OK state=stopped"));
+        
+        assertEquals("ERR unknown command: shutdown", send("shutdown"));
+    }
+    
+    @Test
+    public void testRestartStopsTheLoopForTheEmbeddingMain() throws Exception {
+        daemon.startProcessingLoopFaked();
+        assertFalse(daemon.isRestartRequested());
+        
+        assertEquals("OK restarting", send("restart"));
+        daemon.waitWhileExecuting();
+        assertFalse(daemon.isProcessingLoopRunning());
+        assertTrue(daemon.isRestartRequested());
+    }
+    
+    @Test
+    public void testWrongTokenIsRejected() throws Exception {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+        try {
+            OutputStream out = socket.getOutputStream();
+            out.write("0123 stop\n".getBytes("US-ASCII"));
+            out.flush();
+            
+            InputStream in = socket.getInputStream();
+            byte[] response = new byte[64];
+            int n = in.read(response);
+            assertEquals("ERR bad token\n", new String(response, 0, n, "US-ASCII"));
+        } finally {
+            socket.close();
+        }
+        assertTrue(send("status").startsWith("OK state=stopped"));
+    }
+    
+    @Test
+    public void testCloseDeletesControlFile() throws Exception {
+        assertTrue(controlFile.exists());
+        server.close();
+        assertFalse(controlFile.exists());
+        
+        try {
+            send("status");
+            fail("control file should be gone");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+    
+    @Test
+    public void testControlFileIsOwnerOnlyAndIgnoresAPlantedTempFile() throws Exception {
+        server.close();
+        File tmp = new File(controlFile.getPath() + ".tmp");
+        File target = File.createTempFile("DaemonControlServerTest", ".target");
+        try {
+            // Someone else's file behind the predictable temp name must not receive the token
+            Files.createSymbolicLink(tmp.toPath(), target.toPath());
+            server = new DaemonControlServer(daemon, controlFile, 0);
+            server.start();
+            
+            assertEquals(0, target.length());
+            assertFalse(Files.isSymbolicLink(controlFile.toPath()));
+            assertFalse(tmp.exists());
+            if (Files.getFileStore(controlFile.toPath()).supportsFileAttributeView(PosixFileAttributeView.class)) {
+                assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(controlFile
+                        .toPath())));
+            }
+            assertTrue(send("status").startsWith("OK state="));
+        } finally {
+            tmp.delete();
+            target.delete();
+        }
+    }
+}
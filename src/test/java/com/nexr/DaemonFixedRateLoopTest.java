@@ -0,0 +1,128 @@
+package com.nexr;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class DaemonFixedRateLoopTest extends TestCase {
+    
+    private static final long PERIOD_MILLIS = 100;
+    
+    /*
+     * The second iteration takes this long, past the ticks at 200 and 300 ms
+     */
+    private static final long SLOW_ITERATION_MILLIS = 250;
+    
+    private static final long TOLERANCE_MILLIS = 40;
+    
+    private Daemon daemon;
+    
+    /**
+     * Runs a fixed rate loop until it started five iterations, and returns their start times in ms since the first one.
+     */
+    private List<Long> runLoop(Daemon.LoopOverrunPolicy policy) throws Exception {
+        final List<Long> starts = new ArrayList<Long>();
+        final CountDownLatch done = new CountDownLatch(1);
+        
+        daemon = new Daemon() {
+            @Override
+            protected long customExecuteProcessingWork(int workerIndex, int workerCount) throws Exception {
+                long now = System.nanoTime();
+                synchronized (starts) {
+                    if (starts.size() == 5) {
+                        done.countDown();
+                        return 0;
+                    }
+                    starts.add(now);
+                }
+                if (starts.size() == 2) {
+                    Thread.sleep(SLOW_ITERATION_MILLIS);
+                }
+                return 0;
+            }
+        };
+        daemon.setProcessLoopSleepMillis(PERIOD_MILLIS);
+        daemon.setFixedRateLoop(true);
+        daemon.setLoopOverrunPolicy(policy);
+        
+        daemon.startProcessingLoop();
+        try {
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        } finally {
+            daemon.stopProcessingLoop();
+        }
+        
+        List<Long> millis = new ArrayList<Long>();
+        for (long start : starts) {
+            millis.add(TimeUnit.NANOSECONDS.toMillis(start - starts.get(0)));
+        }
+        return millis;
+    }
+    
+    private static void assertAround(List<Long> starts, int iteration, long expectedMillis) {
+        long actual = starts.get(iteration);
+        assertTrue("iteration " + iteration + " of " + starts + ", expected at " + expectedMillis + " ms",
+                actual >= expectedMillis - 5 && actual < expectedMillis + TOLERANCE_MILLIS);
+    }
+    
+    @Test
+    public void testSkipWaitsForTheNextTickOnTheOriginalSchedule() throws Exception {
+        List<Long> starts = runLoop(Daemon.LoopOverrunPolicy.SKIP);
+        
+        assertAround(starts, 1, 100);
+        // The slow iteration ends at 350 ms, the ticks at 200 and 300 ms are dropped
+        assertAround(starts, 2, 400);
+        assertAround(starts, 3, 500);
+        assertEquals(1, daemon.getLoopOverrunCount());
+    }
+    
+    @Test
+    public void testCatchUpRunsTheMissedTicksBackToBack() throws Exception {
+        List<Long> starts = runLoop(Daemon.LoopOverrunPolicy.CATCH_UP);
+        
+        assertAround(starts, 1, 100);
+        // The ticks at 200 and 300 ms run right after the slow iteration, then the loop is back on schedule
+        assertAround(starts, 2, 350);
+        assertAround(starts, 3, 350);
+        assertAround(starts, 4, 400);
+        // The catch up run for 200 ms ended after the 300 ms tick as well
+        assertEquals(2, daemon.getLoopOverrunCount());
+    }
+    
+    @Test
+    public void testBackToBackRestartsTheScheduleFromTheOverrun() throws Exception {
+        List<Long> starts = runLoop(Daemon.LoopOverrunPolicy.BACK_TO_BACK);
+        
+        assertAround(starts, 1, 100);
+        assertAround(starts, 2, 350);
+        assertAround(starts, 3, 450);
+        assertAround(starts, 4, 550);
+        assertEquals(1, daemon.getLoopOverrunCount());
+    }
+    
+    @Test
+    public void testLoopOnScheduleHasNoOverruns() throws Exception {
+        final CountDownLatch done = new CountDownLatch(3);
+        daemon = new Daemon() {
+            @Override
+            protected long customExecuteProcessingWork(int workerIndex, int workerCount) {
+                done.countDown();
+                return 0;
+            }
+        };
+        daemon.setProcessLoopSleepMillis(10);
+        daemon.setFixedRateLoop(true);
+        daemon.startProcessingLoop();
+        try {
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        } finally {
+            daemon.stopProcessingLoop();
+        }
+        assertEquals(0, daemon.getLoopOverrunCount());
+    }
+}
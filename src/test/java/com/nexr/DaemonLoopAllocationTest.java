@@ -0,0 +1,76 @@
+package com.nexr;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.Level;
+import org.junit.Test;
+
+/**
+ * Checks that a steady state Daemon loop iteration does not allocate when the loop's log statements are disabled.
+ */
+public class DaemonLoopAllocationTest extends TestCase {
+    
+    private static final long WARMUP_ITERATIONS = 200000;
+    
+    private static final long MEASURED_ITERATIONS = 200000;
+    
+    private volatile long loopThreadId = -1;
+    
+    @Test
+    public void testLoopDoesNotAllocateWithLoggingDisabled() throws Exception {
+        java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        if (!(mx instanceof com.sun.management.ThreadMXBean)
+                || !((com.sun.management.ThreadMXBean) mx).isThreadAllocatedMemorySupported()) {
+            return; // Can not measure on this JVM
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) mx;
+        threads.setThreadAllocatedMemoryEnabled(true);
+        
+        org.apache.log4j.Logger daemonLogger = org.apache.log4j.Logger.getLogger(Daemon.class);
+        Level level = daemonLogger.getLevel();
+        daemonLogger.setLevel(Level.WARN);
+        
+        Daemon daemon = new Daemon() {
+            @Override
+            protected void customExecuteProcessing(int workerIndex, int workerCount) throws Exception {
+                if (loopThreadId < 0) {
+                    loopThreadId = Thread.currentThread().getId();
+                }
+                super.customExecuteProcessing(workerIndex, workerCount);
+            }
+        };
+        daemon.setProcessLoopSleepMillis(0);
+        
+        // The heartbeat update is part of every iteration
+        File heartbeat = File.createTempFile("DaemonLoopAllocationTest", ".heartbeat");
+        daemon.openHeartbeatFile(heartbeat.getPath());
+        
+        try {
+            daemon.startProcessingLoop();
+            
+            waitForIterations(daemon, WARMUP_ITERATIONS);
+            long startIterations = daemon.getLoopIterationCount();
+            long startBytes = threads.getThreadAllocatedBytes(loopThreadId);
+            
+            waitForIterations(daemon, startIterations + MEASURED_ITERATIONS);
+            long bytes = threads.getThreadAllocatedBytes(loopThreadId) - startBytes;
+            long iterations = daemon.getLoopIterationCount() - startIterations;
+            
+            assertTrue("loop allocated " + bytes + " bytes in " + iterations + " iterations",
+                    (double) bytes / iterations < 0.1);
+        } finally {
+            daemon.stopProcessingLoop();
+            daemonLogger.setLevel(level);
+            heartbeat.delete();
+        }
+    }
+    
+    private static void waitForIterations(Daemon daemon, long iterations) throws InterruptedException {
+        while (daemon.getLoopIterationCount() < iterations) {
+            Thread.sleep(10);
+        }
+    }
+}
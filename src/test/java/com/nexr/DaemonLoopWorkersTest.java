@@ -0,0 +1,92 @@
+package com.nexr;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class DaemonLoopWorkersTest extends TestCase {
+    
+    private static final int WORKERS = 4;
+    
+    @Test
+    public void testEveryWorkerIndexIsCalledAndCounted() throws Exception {
+        final Set<Integer> indexes = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+        final AtomicInteger wrongCounts = new AtomicInteger();
+        final CountDownLatch allSeen = new CountDownLatch(1);
+        
+        Daemon daemon = new Daemon() {
+            @Override
+            protected long customExecuteProcessingWork(int workerIndex, int workerCount) {
+                if (workerCount != WORKERS) {
+                    wrongCounts.incrementAndGet();
+                }
+                indexes.add(workerIndex);
+                if (indexes.size() == WORKERS) {
+                    allSeen.countDown();
+                }
+                return 0;
+            }
+        };
+        daemon.setProcessLoopSleepMillis(5);
+        daemon.setLoopWorkerCount(WORKERS);
+        
+        daemon.startProcessingLoop();
+        try {
+            assertTrue(allSeen.await(10, TimeUnit.SECONDS));
+        } finally {
+            daemon.stopProcessingLoop();
+        }
+        
+        assertEquals(WORKERS, indexes.size());
+        for (int i = 0; i < WORKERS; i++) {
+            assertTrue("worker " + i + " not called", indexes.contains(i));
+        }
+        assertEquals(0, wrongCounts.get());
+        
+        long[] counts = daemon.getLoopIterationCounts();
+        assertEquals(WORKERS, counts.length);
+        long sum = 0;
+        for (long count : counts) {
+            assertTrue(count > 0);
+            sum += count;
+        }
+        assertEquals(sum, daemon.getLoopIterationCount());
+    }
+    
+    @Test
+    public void testFailingWorkerStopsTheWholeLoop() throws Exception {
+        final CountDownLatch failed = new CountDownLatch(1);
+        
+        Daemon daemon = new Daemon() {
+            @Override
+            protected long customExecuteProcessingWork(int workerIndex, int workerCount) {
+                if (workerIndex == 2) {
+                    failed.countDown();
+                    throw new IllegalStateException("worker 2 failure");
+                }
+                return 0;
+            }
+        };
+        // The other workers sleep far longer than the test, only the failure can end their sleep
+        daemon.setProcessLoopSleepMillis(60000);
+        daemon.setLoopWorkerCount(WORKERS);
+        
+        daemon.startProcessingLoop();
+        try {
+            assertTrue(failed.await(10, TimeUnit.SECONDS));
+            assertTrue("loop workers still running", daemon.awaitLoopStop(5000));
+            assertFalse(daemon.isProcessingLoopRunning());
+        } finally {
+            daemon.stopProcessingLoop();
+        }
+        // At most the first iteration of each of the other workers, none after their sleep
+        assertTrue(daemon.getLoopIterationCount() <= WORKERS - 1);
+    }
+}
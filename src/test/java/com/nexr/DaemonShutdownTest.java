@@ -0,0 +1,105 @@
+package com.nexr;
+
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class DaemonShutdownTest extends TestCase {
+    
+    /**
+     * A daemon whose first iteration blocks until it is interrupted.
+     */
+    private static class HungIterationDaemon extends Daemon {
+        
+        final CountDownLatch iterating = new CountDownLatch(1);
+        
+        volatile boolean interrupted;
+        
+        volatile boolean cleanedUp;
+        
+        @Override
+        protected void customExecuteProcessing(int workerIndex, int workerCount) throws Exception {
+            iterating.countDown();
+            try {
+                Thread.sleep(Long.MAX_VALUE);
+            } catch (InterruptedException e) {
+                interrupted = true;
+                throw e;
+            }
+        }
+        
+        @Override
+        protected synchronized void customProcessCleanup() throws Exception {
+            cleanedUp = true;
+        }
+    }
+    
+    @Test
+    public void testHungIterationIsInterruptedAfterDrainDeadline() throws Exception {
+        HungIterationDaemon daemon = new HungIterationDaemon();
+        daemon.setShutdownDeadlines(200, 1000, 100);
+        daemon.startProcessingLoop();
+        assertTrue(daemon.iterating.await(5, TimeUnit.SECONDS));
+        
+        long start = System.nanoTime();
+        daemon.cleanup();
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        
+        assertTrue(daemon.interrupted);
+        assertTrue(daemon.cleanedUp);
+        assertFalse(daemon.isProcessingLoopRunning());
+        assertTrue("cleanup took " + elapsedMillis + " ms", elapsedMillis < 3000);
+        
+        PhaseTimer timer = daemon.getShutdownTimer();
+        assertTrue(timer.getPhaseMillis("drain") >= 200);
+        assertTrue(timer.getPhaseMillis("cleanup") >= 0);
+        assertTrue(timer.getPhaseMillis("flush logs") >= 0);
+    }
+    
+    @Test
+    public void testHungCleanupHookIsInterruptedAfterCleanupDeadline() throws Exception {
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        Daemon daemon = new Daemon() {
+            @Override
+            protected synchronized void customProcessCleanup() throws Exception {
+                try {
+                    Thread.sleep(Long.MAX_VALUE);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+            }
+        };
+        daemon.setShutdownDeadlines(1000, 200, 100);
+        daemon.setProcessLoopSleepMillis(10);
+        daemon.startProcessingLoop();
+        
+        long start = System.nanoTime();
+        daemon.cleanup();
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        
+        assertEquals(0, interrupted.getCount());
+        assertTrue("cleanup took " + elapsedMillis + " ms", elapsedMillis < 3000);
+        assertTrue(daemon.getShutdownTimer().getPhaseMillis("cleanup") >= 200);
+        
+        // Only runs once
+        start = System.nanoTime();
+        daemon.cleanup();
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 100);
+    }
+    
+    @Test
+    public void testDeadlinesFromProperties() {
+        Properties props = new Properties();
+        props.setProperty(DaemonConfig.SHUTDOWN_DRAIN_MILLIS, "5000");
+        props.setProperty(DaemonConfig.SHUTDOWN_FLUSH_MILLIS, "500");
+        
+        DaemonConfig config = DaemonConfig.fromProperties(props, DaemonConfig.DEFAULTS);
+        assertEquals(5000, config.getShutdownDrainMillis());
+        assertEquals(DaemonConfig.DEFAULTS.getShutdownCleanupMillis(), config.getShutdownCleanupMillis());
+        assertEquals(500, config.getShutdownFlushMillis());
+    }
+}
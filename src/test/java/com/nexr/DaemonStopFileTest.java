@@ -0,0 +1,90 @@
+package com.nexr;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class DaemonStopFileTest extends TestCase {
+    
+    private File stopFile;
+    
+    private Daemon daemon;
+    
+    @Override
+    protected void setUp() throws Exception {
+        stopFile = File.createTempFile("DaemonStopFileTest", ".stop");
+        stopFile.delete();
+        
+        daemon = new Daemon();
+        daemon.setProcessLoopSleepMillis(10);
+        daemon.setStopFilePath(stopFile.getPath());
+    }
+    
+    @Override
+    protected void tearDown() throws Exception {
+        daemon.stopStopFileWatcher();
+        daemon.stopProcessingLoop();
+        stopFile.delete();
+    }
+    
+    /**
+     * Starts the loop and the stop file watcher, creates the stop file and returns how long it took the loop to stop.
+     */
+    private long stopByFile() throws Exception {
+        daemon.startProcessingLoop();
+        daemon.startStopFileWatcher();
+        // Let the watcher get to its first check, or to blocking on the watch service
+        Thread.sleep(200);
+        assertTrue(daemon.isProcessingLoopRunning());
+        
+        long start = System.nanoTime();
+        assertTrue(stopFile.createNewFile());
+        long deadline = start + TimeUnit.SECONDS.toNanos(10);
+        while (daemon.isProcessingLoopRunning() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        
+        assertFalse("loop still running after " + elapsedMillis + " ms", daemon.isProcessingLoopRunning());
+        assertTrue(daemon.awaitLoopStop(5000));
+        return elapsedMillis;
+    }
+    
+    @Test
+    public void testWatchServiceStopsTheLoopRightAway() throws Exception {
+        daemon.setStopFileWatcherSleepSeconds(30);
+        
+        long elapsedMillis = stopByFile();
+        
+        // The create event wakes the watcher, it does not wait for the 30 second polling interval
+        assertTrue("stopped after " + elapsedMillis + " ms", elapsedMillis < 5000);
+        assertFalse("stop file not deleted", stopFile.exists());
+    }
+    
+    @Test
+    public void testPollingStopsTheLoopWithinOneInterval() throws Exception {
+        daemon.setStopFileWatchServiceEnabled(false);
+        daemon.setStopFileWatcherSleepSeconds(1);
+        
+        long elapsedMillis = stopByFile();
+        
+        // Polling finds the file at the next check, at most one interval later
+        assertTrue("stopped after " + elapsedMillis + " ms", elapsedMillis < 1000 + 500);
+        assertFalse("stop file not deleted", stopFile.exists());
+    }
+    
+    @Test
+    public void testStopFileFoundAtStart() throws Exception {
+        daemon.setStopFileWatcherSleepSeconds(30);
+        assertTrue(stopFile.createNewFile());
+        
+        daemon.startProcessingLoop();
+        daemon.startStopFileWatcher();
+        
+        assertTrue(daemon.awaitLoopStop(5000));
+        assertFalse(daemon.isProcessingLoopRunning());
+    }
+}
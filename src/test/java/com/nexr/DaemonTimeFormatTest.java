@@ -0,0 +1,43 @@
+package com.nexr;
+
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class DaemonTimeFormatTest extends TestCase {
+    
+    @Test
+    public void testCompactHumanReadableTime() throws Exception {
+        assertEquals("250 Milliseconds", Daemon.compactHumanReadableTimeWithMs(250));
+        assertEquals("1 Day, 2 Hours, 3 Minutes, 4 Seconds, 5 Milliseconds",
+                Daemon.compactHumanReadableTimeWithMs(93784005L));
+        assertEquals("1 Minute, 0 Seconds, 0 Milliseconds", Daemon.compactHumanReadableTimeWithMs(60000));
+        
+        StringBuilder sb = new StringBuilder("took ");
+        assertSame(sb, Daemon.compactHumanReadableTimeWithMs(3001, sb));
+        assertEquals("took 3 Seconds, 1 Milliseconds", sb.toString());
+        
+        StringWriter out = new StringWriter();
+        Daemon.compactHumanReadableTimeWithMs(3600000, out);
+        assertEquals("1 Hour, 0 Minutes, 0 Seconds, 0 Milliseconds", out.toString());
+    }
+    
+    @Test
+    public void testIsoTimeStamp() {
+        String ts = Daemon.appendIsoTimeStamp(new StringBuilder()).toString();
+        
+        assertTrue(ts, ts.matches("\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2}\\.\\d{3}(Z|[+-]\\d{2}:\\d{2})"));
+    }
+    
+    @Test
+    public void testTimeStampIsCachedWithinASecond() {
+        String first = Daemon.getTimeStamp();
+        String second = Daemon.getTimeStamp();
+        
+        // Either the same cached instance, or the second changed in between
+        assertTrue(first == second || !first.equals(second));
+        assertEquals(new java.util.Date(System.currentTimeMillis()).toString().length(), first.length());
+    }
+}
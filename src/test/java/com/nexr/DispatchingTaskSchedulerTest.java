@@ -0,0 +1,221 @@
+package com.nexr;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+public class DispatchingTaskSchedulerTest extends TestCase {
+    
+    private ThreadPoolTaskScheduler triggerScheduler;
+    
+    @Override
+    protected void setUp() {
+        triggerScheduler = new ThreadPoolTaskScheduler();
+        triggerScheduler.setThreadNamePrefix("trigger-");
+        triggerScheduler.initialize();
+    }
+    
+    @Override
+    protected void tearDown() {
+        triggerScheduler.shutdown();
+    }
+    
+    @Test
+    public void testFixedDelayRunsOnExecutorAndStopsWhenCancelled() throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        
+        try {
+            DispatchingTaskScheduler scheduler = new DispatchingTaskScheduler(triggerScheduler, executor);
+            final CountDownLatch runs = new CountDownLatch(3);
+            final AtomicReference<String> threadName = new AtomicReference<String>();
+            
+            ScheduledFuture<?> future = scheduler.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    threadName.set(Thread.currentThread().getName());
+                    runs.countDown();
+                }
+            }, 10);
+            
+            assertTrue(runs.await(5, TimeUnit.SECONDS));
+            assertFalse(threadName.get().startsWith("trigger-"));
+            
+            future.cancel(false);
+            assertTrue(future.isCancelled());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void testFixedRateTickIsSkippedWhileThePreviousRunIsInProgress() throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        
+        try {
+            DispatchingTaskScheduler scheduler = new DispatchingTaskScheduler(triggerScheduler, executor);
+            final CountDownLatch started = new CountDownLatch(1);
+            final CountDownLatch release = new CountDownLatch(1);
+            final AtomicInteger runs = new AtomicInteger();
+            
+            ScheduledFuture<?> future = scheduler.scheduleAtFixedRate(new Runnable() {
+                public void run() {
+                    runs.incrementAndGet();
+                    started.countDown();
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }, 10);
+            
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            // Some 20 ticks while the first run blocks
+            Thread.sleep(200);
+            assertEquals(1, runs.get());
+            
+            release.countDown();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (runs.get() < 2 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue("runs again once the first run completed", runs.get() >= 2);
+            future.cancel(false);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void testRejectedFixedDelayRunIsRearmed() throws Exception {
+        final ExecutorService pool = Executors.newCachedThreadPool();
+        final AtomicInteger rejections = new AtomicInteger();
+        // Refuses the first two runs
+        Executor executor = new Executor() {
+            public void execute(Runnable command) {
+                if (rejections.incrementAndGet() <= 2) {
+                    throw new RejectedExecutionException("busy");
+                }
+                pool.execute(command);
+            }
+        };
+        
+        try {
+            DispatchingTaskScheduler scheduler = new DispatchingTaskScheduler(triggerScheduler, executor);
+            final CountDownLatch runs = new CountDownLatch(2);
+            
+            ScheduledFuture<?> future = scheduler.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    runs.countDown();
+                }
+            }, 10);
+            
+            assertTrue(runs.await(5, TimeUnit.SECONDS));
+            future.cancel(false);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void testSaturatedExecutorSkipsTheRunInsteadOfBlockingTheTriggerThread() throws Exception {
+        // Like the dispatch profile, with one thread instead of 512
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setQueueCapacity(0);
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.initialize();
+        
+        try {
+            final CountDownLatch release = new CountDownLatch(1);
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            
+            DispatchingTaskScheduler scheduler = new DispatchingTaskScheduler(triggerScheduler, executor);
+            final AtomicInteger runs = new AtomicInteger();
+            final AtomicReference<String> threadName = new AtomicReference<String>();
+            ScheduledFuture<?> future = scheduler.scheduleAtFixedRate(new Runnable() {
+                public void run() {
+                    threadName.set(Thread.currentThread().getName());
+                    runs.incrementAndGet();
+                }
+            }, 10);
+            
+            Thread.sleep(100);
+            assertEquals("ticks run while the executor is saturated", 0, runs.get());
+            
+            // The rejected ticks did not leave the task marked as running
+            release.countDown();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (runs.get() < 1 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            future.cancel(false);
+            assertTrue(runs.get() >= 1);
+            assertFalse(threadName.get().startsWith("trigger-"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+    
+    @Test
+    public void testFixedDelayGetWaitsForCancel() throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        
+        try {
+            DispatchingTaskScheduler scheduler = new DispatchingTaskScheduler(triggerScheduler, executor);
+            final ScheduledFuture<?> future = scheduler.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                }
+            }, 10);
+            
+            try {
+                future.get(50, TimeUnit.MILLISECONDS);
+                fail("a fixed delay task only ends when cancelled");
+            } catch (TimeoutException e) {
+                // expected
+            }
+            
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    future.cancel(false);
+                }
+            });
+            try {
+                future.get();
+                fail("get() returned a fixed delay task");
+            } catch (CancellationException e) {
+                assertTrue(future.isDone());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.nexr;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class HeartbeatFileTest extends TestCase {
+    
+    @Test
+    public void testBeatIsVisibleToReader() throws Exception {
+        File file = File.createTempFile("HeartbeatFileTest", ".heartbeat");
+        try {
+            HeartbeatFile heartbeat = HeartbeatFile.create(file);
+            HeartbeatFile.Reader reader = new HeartbeatFile.Reader(file);
+            
+            HeartbeatFile.Snapshot snapshot = reader.read();
+            assertEquals(PidFile.currentPid(), snapshot.getPid());
+            assertEquals(HeartbeatFile.STATE_STARTING, snapshot.getState());
+            assertFalse(snapshot.isAlive(1000));
+            
+            heartbeat.setState(HeartbeatFile.STATE_RUNNING);
+            heartbeat.beat(42, 1500000, 3, 7000);
+            snapshot = reader.read();
+            assertEquals(42, snapshot.getIterations());
+            assertEquals(1500000, snapshot.getLastIterationNanos());
+            assertEquals(3, snapshot.getFailures());
+            assertEquals(7000, snapshot.getLoopSleepMillis());
+            assertTrue(snapshot.isAlive(1000));
+        } finally {
+            file.delete();
+        }
+    }
+    
+    @Test
+    public void testRecreatingKeepsTheFileReadableByAMappedReader() throws Exception {
+        File file = File.createTempFile("HeartbeatFileTest", ".heartbeat");
+        try {
+            HeartbeatFile heartbeat = HeartbeatFile.create(file);
+            heartbeat.setState(HeartbeatFile.STATE_STOPPED);
+            heartbeat.beat(42, 1500000, 3, 7000);
+            HeartbeatFile.Reader reader = new HeartbeatFile.Reader(file);
+            
+            // An in-process restart opens the heartbeat file again while the watchdog keeps its mapping
+            HeartbeatFile.create(file);
+            
+            assertEquals(HeartbeatFile.SIZE, file.length());
+            HeartbeatFile.Snapshot snapshot = reader.read();
+            assertEquals(PidFile.currentPid(), snapshot.getPid());
+            assertEquals(HeartbeatFile.STATE_STARTING, snapshot.getState());
+            assertEquals(0, snapshot.getIterations());
+            assertEquals(0, snapshot.getFailures());
+            assertEquals(0, snapshot.getLoopSleepMillis());
+        } finally {
+            file.delete();
+        }
+    }
+    
+    @Test
+    public void testDaemonLoopUpdatesHeartbeat() throws Exception {
+        File file = File.createTempFile("HeartbeatFileTest", ".heartbeat");
+        Daemon daemon = new Daemon();
+        try {
+            daemon.setProcessLoopSleepMillis(1);
+            daemon.openHeartbeatFile(file.getPath());
+            daemon.startProcessingLoop();
+            
+            HeartbeatFile.Reader reader = new HeartbeatFile.Reader(file);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (reader.read().getIterations() < 10 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            HeartbeatFile.Snapshot snapshot = reader.read();
+            assertTrue(snapshot.toString(), snapshot.getIterations() >= 10);
+            assertTrue(snapshot.toString(), snapshot.isAlive(1000));
+            
+            daemon.stopProcessingLoop();
+            assertEquals(HeartbeatFile.STATE_STOPPED, reader.read().getState());
+        } finally {
+            daemon.cleanup();
+            file.delete();
+        }
+    }
+}
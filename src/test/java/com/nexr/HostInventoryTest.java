@@ -0,0 +1,119 @@
+package com.nexr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import com.nexr.ClusterTopology.Role;
+
+public class HostInventoryTest extends TestCase {
+    
+    private static final int MASTER = Role.HADOOP_MASTER.bit();
+    
+    private static final int ZOOKEEPER = Role.ZOOKEEPER.bit();
+    
+    private final List<HostInventory.Delta> deltas = new ArrayList<HostInventory.Delta>();
+    
+    private final HostInventory inventory = new HostInventory();
+    
+    @Override
+    protected void setUp() {
+        inventory.addListener(new HostInventory.Listener() {
+            public void hostsChanged(HostInventory.Delta delta) {
+                deltas.add(delta);
+            }
+        });
+    }
+    
+    @Test
+    public void testListenersOnlySeeTheChangedHosts() {
+        inventory.update(Arrays.asList(new Host("cnode1", MASTER), new Host("cnode2", ZOOKEEPER),
+                new Host("cnode3", 0)));
+        assertEquals(1, deltas.size());
+        assertEquals(3, deltas.get(0).getAdded().size());
+        HostInventory.Snapshot first = inventory.getSnapshot();
+        assertEquals(1, first.getVersion());
+        
+        HostInventory.Delta delta = inventory.update(Arrays.asList(new Host("cnode1", MASTER),
+                new Host("cnode2", MASTER | ZOOKEEPER), new Host("cnode4", 0)));
+        
+        assertEquals(2, deltas.size());
+        assertSame(delta, deltas.get(1));
+        assertEquals(Arrays.asList(new Host("cnode4", 0)), delta.getAdded());
+        assertEquals(Arrays.asList(new Host("cnode3", 0)), delta.getRemoved());
+        assertEquals(Arrays.asList(new Host("cnode2", MASTER | ZOOKEEPER)), delta.getChanged());
+        assertSame(first, delta.getPrevious());
+        assertEquals(ZOOKEEPER, delta.getPrevious().getHost("cnode2").getRoles());
+        
+        // The first snapshot is untouched, a reader holding it keeps its view
+        HostInventory.Snapshot second = inventory.getSnapshot();
+        assertSame(second, delta.getCurrent());
+        assertEquals(2, second.getVersion());
+        assertNotNull(first.getHost("cnode3"));
+        assertNull(second.getHost("cnode3"));
+    }
+    
+    @Test
+    public void testUnchangedRefreshKeepsTheSnapshot() {
+        List<Host> hosts = Arrays.asList(new Host("cnode1", MASTER), new Host("cnode2", ZOOKEEPER));
+        inventory.update(hosts);
+        HostInventory.Snapshot snapshot = inventory.getSnapshot();
+        
+        HostInventory.Delta delta = inventory.update(new ArrayList<Host>(hosts));
+        
+        assertTrue(delta.isEmpty());
+        assertSame(snapshot, inventory.getSnapshot());
+        assertEquals(1, deltas.size());
+    }
+    
+    @Test
+    public void testRefreshFromTopology() {
+        ClusterTopology topology = ClusterTopology.parse(new String[] { "cnode1 cnode2", "cnode2 cnode3" }, "cnode1");
+        
+        inventory.refresh(topology);
+        
+        HostInventory.Snapshot snapshot = inventory.getSnapshot();
+        assertEquals(3, snapshot.size());
+        assertEquals(MASTER, snapshot.getHost("cnode1").getRoles());
+        assertEquals(MASTER | ZOOKEEPER, snapshot.getHost("cnode2").getRoles());
+        assertTrue(snapshot.getHost("cnode3").hasRole(Role.ZOOKEEPER));
+        
+        assertTrue(inventory.refresh(ClusterTopology.parse(new String[] { "cnode2 cnode1", "cnode3,cnode2" }, "cnode1"))
+                .isEmpty());
+    }
+    
+    @Test
+    public void testFailingListenerDoesNotStopTheOthers() {
+        final List<HostInventory.Delta> seen = new ArrayList<HostInventory.Delta>();
+        HostInventory inventory = new HostInventory();
+        inventory.addListener(new HostInventory.Listener() {
+            public void hostsChanged(HostInventory.Delta delta) {
+                throw new IllegalStateException("listener failure");
+            }
+        });
+        inventory.addListener(new HostInventory.Listener() {
+            public void hostsChanged(HostInventory.Delta delta) {
+                seen.add(delta);
+            }
+        });
+        
+        inventory.update(Arrays.asList(new Host("cnode1", 0)));
+        
+        assertEquals(1, seen.size());
+        assertEquals(1, inventory.getSnapshot().getVersion());
+    }
+    
+    @Test
+    public void testDuplicateHostsAreRejected() {
+        try {
+            inventory.update(Arrays.asList(new Host("cnode1", 0), new Host("cnode1", MASTER)));
+            fail("duplicate host accepted");
+        } catch (IllegalArgumentException e) {
+            assertEquals(0, inventory.getSnapshot().getVersion());
+        }
+    }
+}
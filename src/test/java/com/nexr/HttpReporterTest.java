@@ -0,0 +1,287 @@
+package com.nexr;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class HttpReporterTest extends TestCase {
+    
+    private HttpServer server;
+    
+    private ExecutorService serverThreads;
+    
+    private Collector collector;
+    
+    private HttpReporter reporter;
+    
+    /**
+     * The in-process collector: unzips and keeps every request body, and remembers the client port of each request to
+     * tell the connections apart.
+     */
+    private static class Collector implements HttpHandler {
+        
+        final List<List<String>> batches = Collections.synchronizedList(new ArrayList<List<String>>());
+        
+        final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+        
+        final AtomicInteger inFlight = new AtomicInteger();
+        
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        
+        volatile int status = 200;
+        
+        volatile CountDownLatch release;
+        
+        volatile CountDownLatch received = new CountDownLatch(0);
+        
+        public void handle(HttpExchange exchange) throws IOException {
+            int current = inFlight.incrementAndGet();
+            try {
+                synchronized (maxInFlight) {
+                    maxInFlight.set(Math.max(maxInFlight.get(), current));
+                }
+                assertEquals("POST", exchange.getRequestMethod());
+                assertEquals("gzip", exchange.getRequestHeaders().getFirst("Content-Encoding"));
+                
+                List<String> records = new ArrayList<String>();
+                BufferedReader in = new BufferedReader(new InputStreamReader(new GZIPInputStream(
+                        exchange.getRequestBody()), "UTF-8"));
+                for (String line = in.readLine(); line != null; line = in.readLine()) {
+                    records.add(line);
+                }
+                while (exchange.getRequestBody().read() != -1) {
+                    // The gzip trailer, the connection is only kept alive once the body was read to its end
+                }
+                batches.add(records);
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                
+                CountDownLatch r = release;
+                if (r != null) {
+                    r.await(10, TimeUnit.SECONDS);
+                }
+                // httpclient only keeps the connection when the response has a length
+                byte[] body = "{}".getBytes("UTF-8");
+                exchange.sendResponseHeaders(status, body.length);
+                exchange.getResponseBody().write(body);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                inFlight.decrementAndGet();
+                exchange.close();
+                received.countDown();
+            }
+        }
+    }
+    
+    @Override
+    protected void setUp() throws IOException {
+        collector = new Collector();
+        serverThreads = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/report", collector);
+        server.setExecutor(serverThreads);
+        server.start();
+        reporter = new HttpReporter();
+    }
+    
+    @Override
+    protected void tearDown() throws InterruptedException {
+        reporter.close(1000);
+        server.stop(0);
+        serverThreads.shutdownNow();
+    }
+    
+    private void startReporter(int batchSize, long flushMillis, int maxInFlight, int maxQueuedBatches) {
+        Properties props = new Properties();
+        props.setProperty(HttpReporter.URL, "http://127.0.0.1:" + server.getAddress().getPort() + "/report");
+        props.setProperty(HttpReporter.BATCH_SIZE, String.valueOf(batchSize));
+        props.setProperty(HttpReporter.FLUSH_MILLIS, String.valueOf(flushMillis));
+        props.setProperty(HttpReporter.MAX_IN_FLIGHT, String.valueOf(maxInFlight));
+        props.setProperty(HttpReporter.MAX_QUEUED_BATCHES, String.valueOf(maxQueuedBatches));
+        reporter.start(DaemonConfig.fromProperties(props, DaemonConfig.DEFAULTS));
+        assertTrue(reporter.isRunning());
+    }
+    
+    @Test
+    public void testFullBatchesShareOneKeepAliveConnection() throws Exception {
+        collector.received = new CountDownLatch(3);
+        startReporter(10, 60000, 1, 10);
+        
+        for (int i = 0; i < 30; i++) {
+            assertTrue(reporter.report("{\"n\":" + i + "}"));
+        }
+        
+        assertTrue(collector.received.await(10, TimeUnit.SECONDS));
+        assertEquals(3, collector.batches.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(10, collector.batches.get(i).size());
+            assertEquals("{\"n\":" + i * 10 + "}", collector.batches.get(i).get(0));
+        }
+        assertEquals("one connection for all requests", 1, collector.clientPorts.size());
+        waitForSent(30);
+        assertEquals(3, reporter.getSentBatchCount());
+    }
+    
+    @Test
+    public void testPartialBatchIsSentAfterFlushMillis() throws Exception {
+        collector.received = new CountDownLatch(1);
+        startReporter(100, 200, 1, 10);
+        
+        long start = System.nanoTime();
+        reporter.report("a");
+        reporter.report("b");
+        reporter.report("c");
+        
+        assertTrue(collector.received.await(10, TimeUnit.SECONDS));
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("sent after " + elapsedMillis + " ms", elapsedMillis >= 200);
+        assertEquals(1, collector.batches.size());
+        assertEquals(3, collector.batches.get(0).size());
+    }
+    
+    @Test
+    public void testInFlightRequestsAreBounded() throws Exception {
+        collector.release = new CountDownLatch(1);
+        collector.received = new CountDownLatch(3);
+        startReporter(1, 60000, 2, 1);
+        
+        // Two requests in flight, one batch queued, two dropped
+        for (int i = 0; i < 2; i++) {
+            reporter.report("record " + i);
+        }
+        while (collector.inFlight.get() < 2) {
+            Thread.sleep(10);
+        }
+        for (int i = 2; i < 5; i++) {
+            reporter.report("record " + i);
+        }
+        assertEquals(2, reporter.getDroppedRecordCount());
+        
+        collector.release.countDown();
+        assertTrue(collector.received.await(10, TimeUnit.SECONDS));
+        waitForSent(3);
+        assertEquals(2, collector.maxInFlight.get());
+        assertTrue(collector.clientPorts.size() <= 2);
+    }
+    
+    @Test
+    public void testCloseSendsThePendingBatch() throws Exception {
+        startReporter(100, 60000, 1, 10);
+        reporter.report("last");
+        
+        reporter.close(5000);
+        
+        assertFalse(reporter.isRunning());
+        assertFalse(reporter.report("too late"));
+        assertEquals(1, collector.batches.size());
+        assertEquals(1, reporter.getSentRecordCount());
+    }
+    
+    @Test
+    public void testRefusedBatchesAreCountedAsFailed() throws Exception {
+        collector.status = 500;
+        collector.received = new CountDownLatch(1);
+        startReporter(2, 60000, 1, 10);
+        
+        reporter.report("a");
+        reporter.report("b");
+        
+        assertTrue(collector.received.await(10, TimeUnit.SECONDS));
+        reporter.close(5000);
+        assertEquals(1, reporter.getFailedBatchCount());
+        assertEquals(2, reporter.getDroppedRecordCount());
+        assertEquals(0, reporter.getSentRecordCount());
+    }
+    
+    @Test
+    public void testBatchWhichCannotBeSentIsCountedAsFailed() throws Exception {
+        Properties props = new Properties();
+        // Not an http url, httpclient throws IllegalStateException instead of IOException
+        props.setProperty(HttpReporter.URL, "/report");
+        props.setProperty(HttpReporter.BATCH_SIZE, "2");
+        reporter.start(DaemonConfig.fromProperties(props, DaemonConfig.DEFAULTS));
+        
+        reporter.report("a");
+        reporter.report("b");
+        
+        reporter.close(5000);
+        assertEquals(1, reporter.getFailedBatchCount());
+        assertEquals(2, reporter.getDroppedRecordCount());
+    }
+    
+    @Test
+    public void testBatchesStillQueuedAtCloseAreCountedAsDropped() throws Exception {
+        collector.release = new CountDownLatch(1);
+        startReporter(1, 60000, 1, 10);
+        
+        // One request in flight, held by the collector, two batches queued behind it
+        for (int i = 0; i < 3; i++) {
+            reporter.report("record " + i);
+        }
+        while (collector.inFlight.get() < 1) {
+            Thread.sleep(10);
+        }
+        reporter.close(200);
+        
+        // The request in flight ends one way or the other once the collector answers
+        collector.release.countDown();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (reporter.getSentBatchCount() + reporter.getFailedBatchCount() < 1 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, reporter.getSentBatchCount() + reporter.getFailedBatchCount());
+        assertEquals(2 + reporter.getFailedBatchCount(), reporter.getDroppedRecordCount());
+    }
+    
+    @Test
+    public void testSettingsBeyondIntAreRejected() {
+        Properties props = new Properties();
+        props.setProperty(HttpReporter.URL, "http://127.0.0.1:" + server.getAddress().getPort() + "/report");
+        props.setProperty(HttpReporter.BATCH_SIZE, "3000000000");
+        try {
+            reporter.start(DaemonConfig.fromProperties(props, DaemonConfig.DEFAULTS));
+            fail("batch size beyond int accepted");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith(HttpReporter.BATCH_SIZE));
+        }
+        assertFalse(reporter.isRunning());
+        assertFalse(reporter.report("record"));
+    }
+    
+    @Test
+    public void testOffWithoutUrl() {
+        reporter.start(DaemonConfig.DEFAULTS);
+        
+        assertFalse(reporter.isRunning());
+        assertFalse(reporter.report("record"));
+    }
+    
+    private void waitForSent(long records) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (reporter.getSentRecordCount() < records && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(records, reporter.getSentRecordCount());
+    }
+}
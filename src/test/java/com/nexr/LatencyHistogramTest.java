@@ -0,0 +1,46 @@
+package com.nexr;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest extends TestCase {
+    
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        
+        for (long i = 1; i <= 1000; i++) {
+            histogram.recordMicros(i);
+        }
+        
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMaxMicros());
+        assertEquals(500, histogram.getMeanMicros());
+        assertEquals(500.0, histogram.getPercentileMicros(50), 500 * 0.04);
+        assertEquals(990.0, histogram.getPercentileMicros(99), 990 * 0.04);
+        assertEquals(1000, histogram.getPercentileMicros(100));
+    }
+    
+    @Test
+    public void testBucketsCoverTheWholeRange() {
+        long[] values = { 0, 1, 63, 64, 65, 1000, 123456789L, Long.MAX_VALUE };
+        
+        for (long value : values) {
+            int index = LatencyHistogram.bucketIndex(value);
+            assertTrue(value + " above its bucket", value <= LatencyHistogram.bucketUpperBound(index));
+            assertTrue(value + " below its bucket", index == 0 || value > LatencyHistogram.bucketUpperBound(index - 1));
+        }
+    }
+    
+    @Test
+    public void testReset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordNanos(5000000);
+        histogram.reset();
+        
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMaxMicros());
+        assertEquals(0, histogram.getPercentileMicros(99));
+    }
+}
@@ -0,0 +1,95 @@
+package com.nexr;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class ParallelInitApplicationContextTest extends TestCase {
+    
+    private static final String[] CONFIG = { "classpath:/spring/parallel-init-test.xml" };
+    
+    /*
+     * first and second only get past initialize() when both are in it at the same time
+     */
+    private static volatile CountDownLatch independentBeans;
+    
+    public static class PlainBean {
+        
+        private Object dependency;
+        
+        public void setDependency(Object dependency) {
+            this.dependency = dependency;
+        }
+        
+        public Object getDependency() {
+            return dependency;
+        }
+    }
+    
+    public static class SlowBean extends PlainBean implements ParallelInitializingBean {
+        
+        volatile long initializedAt = 0;
+        
+        public void initialize() throws Exception {
+            if (getDependency() == null && independentBeans != null) {
+                independentBeans.countDown();
+                assertTrue("independent beans not initialized concurrently", independentBeans.await(5, TimeUnit.SECONDS));
+            }
+            if (getDependency() != null) {
+                SlowBean first = (SlowBean) ((PlainBean) getDependency()).getDependency();
+                assertTrue("initialized before its dependency", first.initializedAt != 0);
+            }
+            initializedAt = System.nanoTime();
+        }
+    }
+    
+    @Test
+    public void testIndependentBeansInitializeConcurrently() {
+        independentBeans = new CountDownLatch(2);
+        ParallelInitApplicationContext context = new ParallelInitApplicationContext(CONFIG, 4);
+        try {
+            context.refresh();
+            
+            SlowBean first = context.getBean("first", SlowBean.class);
+            SlowBean second = context.getBean("second", SlowBean.class);
+            SlowBean third = context.getBean("third", SlowBean.class);
+            assertTrue(first.initializedAt != 0);
+            assertTrue(second.initializedAt != 0);
+            assertTrue(third.initializedAt > first.initializedAt);
+        } finally {
+            independentBeans = null;
+            context.close();
+        }
+    }
+    
+    @Test
+    public void testSerialInitializationKeepsDependencyOrder() {
+        ParallelInitApplicationContext context = new ParallelInitApplicationContext(CONFIG, 1);
+        try {
+            context.refresh();
+            
+            SlowBean first = context.getBean("first", SlowBean.class);
+            SlowBean third = context.getBean("third", SlowBean.class);
+            assertTrue(third.initializedAt > first.initializedAt);
+        } finally {
+            context.close();
+        }
+    }
+    
+    @Test
+    public void testLazyBeanInitializedOnFirstUse() {
+        ParallelInitApplicationContext context = new ParallelInitApplicationContext(CONFIG, 4);
+        try {
+            context.refresh();
+            assertFalse(context.getBeanFactory().containsSingleton("lazy"));
+            
+            SlowBean lazy = context.getBean("lazy", SlowBean.class);
+            assertTrue(lazy.initializedAt != 0);
+        } finally {
+            context.close();
+        }
+    }
+}
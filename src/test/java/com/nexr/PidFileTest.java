@@ -0,0 +1,92 @@
+package com.nexr;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class PidFileTest extends TestCase {
+    
+    private File file;
+    
+    @Override
+    protected void setUp() throws Exception {
+        file = File.createTempFile("PidFileTest", ".pid");
+        file.delete();
+    }
+    
+    @Override
+    protected void tearDown() {
+        file.delete();
+    }
+    
+    private void writeContent(String content) throws Exception {
+        Files.write(file.toPath(), content.getBytes(Charset.forName("US-ASCII")));
+    }
+    
+    @Test
+    public void testOwnPidFileIsLive() throws Exception {
+        PidFile pidFile = new PidFile(file);
+        assertNull(pidFile.readLiveOwner());
+        
+        pidFile.writeCurrentProcess();
+        PidFile.Owner owner = pidFile.readLiveOwner();
+        assertNotNull(owner);
+        assertEquals(PidFile.currentPid(), owner.getPid());
+        assertFalse(owner.waitForExit(100));
+        
+        pidFile.deleteIfOwned();
+        assertFalse(file.exists());
+    }
+    
+    @Test
+    public void testRestartTakesOverThePidFileLeftByATimedOutCleanup() throws Exception {
+        PidFile pidFile = new PidFile(file);
+        // The first run wrote it, and its cleanup was interrupted before deleteIfOwned()
+        pidFile.writeCurrentProcess();
+        
+        assertNotNull(pidFile.readLiveOwner());
+        assertNull(pidFile.readOtherLiveOwner());
+        
+        pidFile.writeCurrentProcess();
+        assertEquals(PidFile.currentPid(), pidFile.readLiveOwner().getPid());
+    }
+    
+    @Test
+    public void testOtherLiveOwnerIsReported() throws Exception {
+        if (!new File("/proc/self/stat").exists()) {
+            return;
+        }
+        
+        // pid 1 runs for as long as the machine does
+        writeContent("1 " + PidFile.startTimeOf(1) + "\n");
+        PidFile.Owner owner = new PidFile(file).readOtherLiveOwner();
+        assertNotNull(owner);
+        assertEquals(1, owner.getPid());
+    }
+    
+    @Test
+    public void testReusedPidIsNotTakenForTheWriter() throws Exception {
+        if (!new File("/proc/self/stat").exists()) {
+            return;
+        }
+        
+        // Our own pid, but a start time it never had
+        writeContent(PidFile.currentPid() + " 1\n");
+        PidFile pidFile = new PidFile(file);
+        assertNull(pidFile.readLiveOwner());
+        
+        // Not ours, so it stays
+        pidFile.deleteIfOwned();
+        assertTrue(file.exists());
+    }
+    
+    @Test
+    public void testMalformedPidFileIsIgnored() throws Exception {
+        writeContent("not a pid\n");
+        assertNull(new PidFile(file).readLiveOwner());
+    }
+}
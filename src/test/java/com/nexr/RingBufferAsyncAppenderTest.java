@@ -0,0 +1,227 @@
+package com.nexr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.WriterAppender;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.Test;
+
+public class RingBufferAsyncAppenderTest extends TestCase {
+    
+    private static final Logger LOG = Logger.getLogger(RingBufferAsyncAppenderTest.class);
+    
+    private RingBufferAsyncAppender async;
+    
+    private Recorder recorder;
+    
+    /**
+     * Records what it is given, on which thread and with which immediate flush setting. The first event waits for the
+     * gate to open, holding up the dispatcher.
+     */
+    private static class Recorder extends WriterAppender {
+        
+        final List<String> messages = new ArrayList<String>();
+        
+        final List<Boolean> immediateFlushes = new ArrayList<Boolean>();
+        
+        final List<String> threads = new ArrayList<String>();
+        
+        final CountDownLatch entered = new CountDownLatch(1);
+        
+        final CountDownLatch gate = new CountDownLatch(1);
+        
+        /*
+         * Records also after close(), a synchronous write racing with it must still show up
+         */
+        @Override
+        public synchronized void doAppend(LoggingEvent event) {
+            append(event);
+        }
+        
+        @Override
+        public void append(LoggingEvent event) {
+            entered.countDown();
+            try {
+                gate.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (this) {
+                messages.add(event.getRenderedMessage());
+                immediateFlushes.add(getImmediateFlush());
+                threads.add(Thread.currentThread().getName());
+            }
+        }
+        
+        synchronized List<String> getMessages() {
+            return new ArrayList<String>(messages);
+        }
+    }
+    
+    @Override
+    protected void setUp() {
+        recorder = new Recorder();
+        async = new RingBufferAsyncAppender();
+        async.setName("test");
+        async.addAppender(recorder);
+    }
+    
+    @Override
+    protected void tearDown() {
+        recorder.gate.countDown();
+        async.close();
+    }
+    
+    private static void awaitBlocked(Thread thread) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (thread.getState() == Thread.State.NEW || thread.getState() == Thread.State.RUNNABLE) {
+            assertTrue(thread.getName() + " did not block", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+    
+    private static LoggingEvent event(String message) {
+        return new LoggingEvent(RingBufferAsyncAppenderTest.class.getName(), LOG, Level.INFO, message, null);
+    }
+    
+    /*
+     * Logs "0" and waits until the dispatcher holds it at the gate, so everything logged next stays in the buffer
+     */
+    private void holdDispatcher() throws InterruptedException {
+        async.doAppend(event("0"));
+        assertTrue(recorder.entered.await(5, TimeUnit.SECONDS));
+    }
+    
+    @Test
+    public void testFullBufferDiscardsAndReportsIt() throws Exception {
+        async.setBufferSize(4);
+        async.activateOptions();
+        holdDispatcher();
+        
+        for (int i = 1; i <= 10; i++) {
+            async.doAppend(event(String.valueOf(i)));
+        }
+        assertEquals(6, async.getDiscardedCount());
+        
+        recorder.gate.countDown();
+        assertTrue(async.flush(5000));
+        List<String> messages = recorder.getMessages();
+        assertEquals(6, messages.size());
+        assertEquals("0", messages.get(0));
+        // The summary comes first in the next batch
+        assertEquals("Discarded 6 logging events because the async appender buffer was full", messages.get(1));
+        assertEquals(Arrays.asList("1", "2", "3", "4"), messages.subList(2, 6));
+    }
+    
+    @Test
+    public void testBlockingWaitsForRoomInsteadOfDiscarding() throws Exception {
+        async.setBufferSize(4);
+        async.setBlocking(true);
+        async.activateOptions();
+        holdDispatcher();
+        
+        Thread logging = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 1; i <= 10; i++) {
+                    async.doAppend(event(String.valueOf(i)));
+                }
+            }
+        };
+        logging.start();
+        logging.join(200);
+        assertTrue("logging thread did not wait for room", logging.isAlive());
+        
+        recorder.gate.countDown();
+        logging.join(5000);
+        assertFalse(logging.isAlive());
+        assertTrue(async.flush(5000));
+        assertEquals(11, recorder.getMessages().size());
+        assertEquals(0, async.getDiscardedCount());
+    }
+    
+    @Test
+    public void testFlushWaitsForTheEventsLoggedBefore() throws Exception {
+        async.activateOptions();
+        holdDispatcher();
+        async.doAppend(event("1"));
+        
+        assertFalse(async.flush(100));
+        assertFalse(RingBufferAsyncAppender.flushAll(100));
+        
+        recorder.gate.countDown();
+        assertTrue(RingBufferAsyncAppender.flushAll(5000));
+        assertEquals(Arrays.asList("0", "1"), recorder.getMessages());
+        
+        // A closed appender is no longer flushed
+        async.close();
+        assertTrue(RingBufferAsyncAppender.flushAll(0));
+    }
+    
+    @Test
+    public void testImmediateFlushOnlyForTheLastEventOfABatch() throws Exception {
+        async.setBatchSize(3);
+        async.activateOptions();
+        holdDispatcher();
+        for (int i = 1; i <= 5; i++) {
+            async.doAppend(event(String.valueOf(i)));
+        }
+        
+        recorder.gate.countDown();
+        assertTrue(async.flush(5000));
+        
+        // Batches [0], [1 2 3] and [4 5]
+        assertEquals(Arrays.asList("0", "1", "2", "3", "4", "5"), recorder.getMessages());
+        assertEquals(Arrays.asList(true, false, false, true, false, true), recorder.immediateFlushes);
+    }
+    
+    @Test
+    public void testWritesSynchronouslyBeforeActivationAndWhileClosing() throws Exception {
+        recorder.gate.countDown();
+        async.doAppend(event("not activated"));
+        assertEquals(Thread.currentThread().getName(), recorder.threads.get(0));
+        
+        // A second recorder holds up the dispatcher while the appender closes
+        final Recorder slow = new Recorder();
+        async = new RingBufferAsyncAppender();
+        async.setName("closing");
+        async.addAppender(slow);
+        async.activateOptions();
+        async.doAppend(event("0"));
+        assertTrue(slow.entered.await(5, TimeUnit.SECONDS));
+        
+        Thread closer = new Thread() {
+            @Override
+            public void run() {
+                async.close();
+            }
+        };
+        closer.start();
+        // close() waits for the dispatcher, logging in the meantime does not go through the buffer any more
+        awaitBlocked(closer);
+        Thread logging = new Thread("closing-logger") {
+            @Override
+            public void run() {
+                async.doAppend(event("while closing"));
+            }
+        };
+        logging.start();
+        // The synchronous write waits for the dispatcher to let go of the attached appenders
+        awaitBlocked(logging);
+        
+        slow.gate.countDown();
+        logging.join(5000);
+        closer.join(5000);
+        assertFalse(closer.isAlive());
+        assertEquals(Arrays.asList("0", "while closing"), slow.getMessages());
+        assertEquals("closing-logger", slow.threads.get(1));
+    }
+}
@@ -0,0 +1,108 @@
+package com.nexr;
+
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+public class SpringContextShutdownTest extends TestCase {
+    
+    private ThreadPoolTaskScheduler scheduler;
+    
+    private ThreadPoolTaskExecutor executor;
+    
+    private GenericApplicationContext context;
+    
+    @Override
+    protected void setUp() {
+        scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(2);
+        scheduler.setThreadNamePrefix("test-scheduler-");
+        scheduler.initialize();
+        
+        executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setThreadNamePrefix("test-executor-");
+        executor.initialize();
+        
+        context = new GenericApplicationContext();
+        context.getBeanFactory().registerSingleton("scheduler", scheduler);
+        context.getBeanFactory().registerSingleton("executor", executor);
+        context.refresh();
+    }
+    
+    @Test
+    public void testInFlightTasksCompleteAndPendingTriggersAreCancelled() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicBoolean finished = new AtomicBoolean();
+        
+        // One task in flight on the executor, and a fixed delay task whose next trigger is not due yet
+        executor.execute(new Runnable() {
+            public void run() {
+                started.countDown();
+                try {
+                    Thread.sleep(200);
+                    finished.set(true);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+            }
+        }, new Date(System.currentTimeMillis() + 60000), 60000);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        
+        SpringContextShutdown shutdown = new SpringContextShutdown(context);
+        shutdown.shutdown(5000);
+        
+        assertTrue(finished.get());
+        assertEquals(1, shutdown.getExecutorCompletedCount());
+        assertEquals(0, shutdown.getExecutorCancelledCount());
+        assertEquals(0, shutdown.getSchedulerCompletedCount());
+        assertEquals(1, shutdown.getSchedulerCancelledCount());
+        assertTrue(scheduler.getScheduledExecutor().isTerminated());
+        assertTrue(executor.getThreadPoolExecutor().isTerminated());
+        assertFalse(context.isActive());
+        assertTrue(shutdown.getTimer().getPhaseMillis("executor") >= 0);
+    }
+    
+    @Test
+    public void testTasksRunningPastTheDeadlineAreInterrupted() throws Exception {
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        
+        executor.execute(new Runnable() {
+            public void run() {
+                started.countDown();
+                try {
+                    Thread.sleep(Long.MAX_VALUE);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+            }
+        });
+        executor.execute(new Runnable() {
+            public void run() {
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        
+        SpringContextShutdown shutdown = new SpringContextShutdown(context);
+        long start = System.nanoTime();
+        shutdown.shutdown(200);
+        
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 2000);
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        assertEquals(1, shutdown.getExecutorCancelledCount());
+        assertFalse(context.isActive());
+    }
+}